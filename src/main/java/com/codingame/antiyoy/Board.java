@@ -0,0 +1,396 @@
+package com.codingame.antiyoy;
+
+import java.util.Arrays;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Bitboard mirror of the map: one bit per cell, cell index = x + width * y.
+// Cells push their changes here so rule queries can work on whole masks
+// (shifts and ANDs: flood, playable frontier) instead of walking Cell objects.
+// Income is a running counter per player rather than a mask count, so reading it stays O(1).
+public class Board {
+    // capture level of cells nobody can take: own occupied cells, or out of the league's levels
+    static public final int UNCAPTURABLE = Byte.MAX_VALUE;
+
+    private final int width;
+    private final int height;
+    private final int size;
+    private final int words;
+    private final int maxLevel;
+
+    // geometry masks
+    private final long[] all;
+    private final long[] notFirstColumn;
+    private final long[] notLastColumn;
+
+    // attribute masks
+    private final long[] voids;
+    private final long[] mineSpots;
+    private final long[] active;
+    private final long[] towers;
+    private final long[] mines;
+    private final long[] buildings;
+    private final long[][] owned;
+
+    // level of the unit standing on each cell, 0 if none
+    private final byte[] unitLevel;
+
+    // per player, lowest unit level that can take each cell (Cell.isCapturable)
+    private final byte[][] captureLevel;
+
+    // running income per player, from the upkeep of the unit standing on each cell
+    private final int[] upkeep;
+    private final int[] income;
+
+    // per player, bumped whenever an owned cell is gained, lost or changes activity
+    private final int[] territoryVersions;
+
+    // map lines of the turn input per player, '\n' ended: '#', '.', 'o'/'O' own, 'x'/'X' opponent
+    private final char[][] mapText;
+
+    // scratch masks for flood and queries
+    private final long[] frontier;
+    private final long[] scratch;
+
+    public Board(int width, int height, int maxLevel) {
+        this.width = width;
+        this.height = height;
+        this.size = width * height;
+        this.words = (this.size + 63) >>> 6;
+        this.maxLevel = maxLevel;
+
+        this.all = new long[words];
+        this.notFirstColumn = new long[words];
+        this.notLastColumn = new long[words];
+        for (int idx = 0; idx < size; ++idx) {
+            set(this.all, idx);
+            if (idx % width != 0)
+                set(this.notFirstColumn, idx);
+            if (idx % width != width - 1)
+                set(this.notLastColumn, idx);
+        }
+
+        this.voids = new long[words];
+        this.mineSpots = new long[words];
+        this.active = new long[words];
+        this.towers = new long[words];
+        this.mines = new long[words];
+        this.buildings = new long[words];
+        this.owned = new long[PLAYER_COUNT][words];
+        this.unitLevel = new byte[size];
+        this.captureLevel = new byte[PLAYER_COUNT][size];
+        this.upkeep = new int[size];
+        this.income = new int[PLAYER_COUNT];
+        this.territoryVersions = new int[PLAYER_COUNT];
+        this.frontier = new long[words];
+        this.scratch = new long[words];
+
+        // cells start NEUTRAL, active and free: level 1 takes them
+        System.arraycopy(this.all, 0, this.active, 0, words);
+        for (byte[] levels : this.captureLevel)
+            Arrays.fill(levels, (byte) 1);
+
+        this.mapText = new char[PLAYER_COUNT][height * (width + 1)];
+        for (char[] text : this.mapText) {
+            Arrays.fill(text, '.');
+            for (int y = 0; y < height; ++y)
+                text[y * (width + 1) + width] = '\n';
+        }
+    }
+
+    // geometry
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public int getSize() { return this.size; }
+    public int getWords() { return this.words; }
+
+    public int getIndex(int x, int y) { return x + this.width * y; }
+    public int getX(int idx) { return idx % this.width; }
+    public int getY(int idx) { return idx / this.width; }
+
+    public long[] newMask() { return new long[this.words]; }
+
+    // masks (read only for callers)
+    public long[] getVoids() { return this.voids; }
+    public long[] getMineSpots() { return this.mineSpots; }
+    public long[] getActive() { return this.active; }
+    public long[] getTowers() { return this.towers; }
+    public long[] getMines() { return this.mines; }
+    public long[] getOwned(int playerId) { return this.owned[playerId]; }
+
+    public int getIncome(int playerId) { return this.income[playerId]; }
+    public int getTerritoryVersion(int playerId) { return this.territoryVersions[playerId]; }
+    public char[] getMapText(int playerId) { return this.mapText[playerId]; }
+    public int getCaptureLevel(int playerId, int idx) { return this.captureLevel[playerId][idx]; }
+
+    // updates pushed by cells
+    void onOwnerChange(int idx, int oldOwner, int newOwner) {
+        removeIncome(idx);
+        if (oldOwner >= 0)
+            ++this.territoryVersions[oldOwner];
+        if (newOwner >= 0)
+            ++this.territoryVersions[newOwner];
+        if (oldOwner >= 0)
+            clear(this.owned[oldOwner], idx);
+        else if (oldOwner == VOID)
+            clear(this.voids, idx);
+
+        if (newOwner >= 0)
+            set(this.owned[newOwner], idx);
+        else if (newOwner == VOID)
+            set(this.voids, idx);
+        addIncome(idx);
+        updateMapText(idx);
+        updateCaptureLevels(idx);
+    }
+
+    void onActiveChange(int idx, boolean isActive) {
+        int owner = getOwner(idx);
+        if (owner >= 0)
+            ++this.territoryVersions[owner];
+        removeIncome(idx);
+        if (isActive)
+            set(this.active, idx);
+        else
+            clear(this.active, idx);
+        addIncome(idx);
+        updateMapText(idx);
+        updateCaptureLevels(idx);
+    }
+
+    void onBuildingChange(int idx, Building building) {
+        removeIncome(idx);
+        clear(this.towers, idx);
+        clear(this.mines, idx);
+        clear(this.buildings, idx);
+        if (building != null && building.getType() == BUILDING_TYPE.TOWER)
+            set(this.towers, idx);
+        else if (building != null && building.getType() == BUILDING_TYPE.MINE)
+            set(this.mines, idx);
+        if (building != null)
+            set(this.buildings, idx);
+        addIncome(idx);
+        updateCaptureLevels(idx);
+    }
+
+    void onUnitChange(int idx, Unit unit) {
+        removeIncome(idx);
+        this.upkeep[idx] = unit == null ? 0 : UNIT_UPKEEP[unit.getLevel()];
+        this.unitLevel[idx] = (byte) (unit == null ? 0 : unit.getLevel());
+        addIncome(idx);
+        // a unit only changes its own cell
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId)
+            this.captureLevel[playerId][idx] = (byte) computeCaptureLevel(playerId, idx);
+    }
+
+    void onMineSpot(int idx) {
+        set(this.mineSpots, idx);
+    }
+
+    private int getOwner(int idx) {
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            if (get(this.owned[playerId], idx))
+                return playerId;
+        }
+        return NEUTRAL;
+    }
+
+    // what a cell brings to its owner: only active cells earn and pay upkeep
+    private int getCellIncome(int idx) {
+        if (!get(this.active, idx))
+            return 0;
+        return CELL_INCOME + (get(this.mines, idx) ? MINE_INCOME : 0) - this.upkeep[idx];
+    }
+
+    private void removeIncome(int idx) {
+        int owner = getOwner(idx);
+        if (owner >= 0)
+            this.income[owner] -= getCellIncome(idx);
+    }
+
+    private void addIncome(int idx) {
+        int owner = getOwner(idx);
+        if (owner >= 0)
+            this.income[owner] += getCellIncome(idx);
+    }
+
+    private void updateMapText(int idx) {
+        int owner = getOwner(idx);
+        int position = idx + idx / this.width;
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            char data;
+            if (get(this.voids, idx))
+                data = '#';
+            else if (owner == NEUTRAL)
+                data = '.';
+            else
+                // capital letter iif active cell
+                data = owner == playerId ? (get(this.active, idx) ? 'O' : 'o') : (get(this.active, idx) ? 'X' : 'x');
+            this.mapText[playerId][position] = data;
+        }
+    }
+
+    // the cell and the neighbours it may protect with a tower
+    private void updateCaptureLevels(int idx) {
+        int x = idx % this.width;
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            byte[] levels = this.captureLevel[playerId];
+            levels[idx] = (byte) computeCaptureLevel(playerId, idx);
+            if (x > 0)
+                levels[idx - 1] = (byte) computeCaptureLevel(playerId, idx - 1);
+            if (x < this.width - 1)
+                levels[idx + 1] = (byte) computeCaptureLevel(playerId, idx + 1);
+            if (idx >= this.width)
+                levels[idx - this.width] = (byte) computeCaptureLevel(playerId, idx - this.width);
+            if (idx + this.width < this.size)
+                levels[idx + this.width] = (byte) computeCaptureLevel(playerId, idx + this.width);
+        }
+    }
+
+    private int computeCaptureLevel(int playerId, int idx) {
+        int owner = getOwner(idx);
+        boolean isFree = this.unitLevel[idx] == 0 && !get(this.buildings, idx);
+        if (owner == playerId)
+            return isFree ? 1 : UNCAPTURABLE;
+
+        // towers, even inactive, and the active cells they protect
+        int level = 1;
+        if (get(this.towers, idx) || (get(this.active, idx) && isProtected(owner, idx)))
+            level = CAPTURE_LEVEL;
+
+        // a unit falls to a higher level, or to the highest one
+        if (this.unitLevel[idx] > 0)
+            level = Math.max(level, Math.min(this.unitLevel[idx] + 1, this.maxLevel));
+        return level > this.maxLevel ? UNCAPTURABLE : level;
+    }
+
+    // cell queries
+    public boolean isActiveOwned(int playerId, int idx) {
+        return get(this.owned[playerId], idx) && get(this.active, idx);
+    }
+
+    public boolean isPlayable(int playerId, int idx) {
+        // owned and active or next to an owned and active cell
+        int x = idx % this.width;
+        return isActiveOwned(playerId, idx)
+            || (x > 0 && isActiveOwned(playerId, idx - 1))
+            || (x < this.width - 1 && isActiveOwned(playerId, idx + 1))
+            || (idx >= this.width && isActiveOwned(playerId, idx - this.width))
+            || (idx + this.width < this.size && isActiveOwned(playerId, idx + this.width));
+    }
+
+    public boolean isProtected(int owner, int idx) {
+        // has a tower on it
+        if (get(this.towers, idx))
+            return true;
+        if (owner < 0)
+            return false;
+
+        // only active towers of the same owner protect nearby cells
+        int x = idx % this.width;
+        return (x > 0 && isActiveTower(owner, idx - 1))
+            || (x < this.width - 1 && isActiveTower(owner, idx + 1))
+            || (idx >= this.width && isActiveTower(owner, idx - this.width))
+            || (idx + this.width < this.size && isActiveTower(owner, idx + this.width));
+    }
+
+    private boolean isActiveTower(int playerId, int idx) {
+        return get(this.towers, idx) && isActiveOwned(playerId, idx);
+    }
+
+    // mask queries
+    public void getActiveOwned(int playerId, long[] out) {
+        long[] owned = this.owned[playerId];
+        for (int w = 0; w < words; ++w)
+            out[w] = owned[w] & this.active[w];
+    }
+
+    // cells where playerId may train or build, as isPlayable: active owned cells and their neighbours, voids excluded
+    public void getPlayable(int playerId, long[] out) {
+        getActiveOwned(playerId, this.scratch);
+        neighbours(this.scratch, out);
+        for (int w = 0; w < words; ++w)
+            out[w] = (out[w] | this.scratch[w]) & ~this.voids[w];
+    }
+
+    // cells reachable from seed through region, seed included
+    public void flood(long[] seed, long[] region, long[] out) {
+        for (int w = 0; w < words; ++w)
+            out[w] = seed[w] & region[w];
+        boolean grown = true;
+        while (grown) {
+            neighbours(out, this.frontier);
+            grown = false;
+            for (int w = 0; w < words; ++w) {
+                long next = out[w] | (this.frontier[w] & region[w]);
+                if (next != out[w]) {
+                    out[w] = next;
+                    grown = true;
+                }
+            }
+        }
+    }
+
+    // 4-neighbourhood of a mask inside the grid, the mask itself excluded
+    public void neighbours(long[] in, long[] out) {
+        long carryLeft1 = 0;
+        for (int w = 0; w < words; ++w) {
+            long left1 = (in[w] << 1) | carryLeft1;
+            carryLeft1 = in[w] >>> 63;
+            long right1 = (in[w] >>> 1) | (w + 1 < words ? in[w + 1] << 63 : 0);
+            out[w] = (left1 & this.notFirstColumn[w]) | (right1 & this.notLastColumn[w])
+                | shiftLeft(in, w, width) | shiftRight(in, w, width);
+            out[w] &= this.all[w];
+        }
+    }
+
+    // word w of (in << n) and (in >>> n) over the whole multi-word mask
+    private long shiftLeft(long[] in, int w, int n) {
+        int wordShift = n >>> 6;
+        int bitShift = n & 63;
+        int src = w - wordShift;
+        if (src < 0)
+            return 0;
+        long value = in[src] << bitShift;
+        if (bitShift != 0 && src > 0)
+            value |= in[src - 1] >>> (64 - bitShift);
+        return value;
+    }
+
+    private long shiftRight(long[] in, int w, int n) {
+        int wordShift = n >>> 6;
+        int bitShift = n & 63;
+        int src = w + wordShift;
+        if (src >= words)
+            return 0;
+        long value = in[src] >>> bitShift;
+        if (bitShift != 0 && src + 1 < words)
+            value |= in[src + 1] << (64 - bitShift);
+        return value;
+    }
+
+    // bit helpers
+    static public boolean get(long[] mask, int idx) { return (mask[idx >>> 6] & (1L << idx)) != 0; }
+    static public void set(long[] mask, int idx) { mask[idx >>> 6] |= 1L << idx; }
+    static public void clear(long[] mask, int idx) { mask[idx >>> 6] &= ~(1L << idx); }
+
+    static public void or(long[] a, long[] b, long[] out) {
+        for (int w = 0; w < out.length; ++w)
+            out[w] = a[w] | b[w];
+    }
+
+    // index of the first set bit at or after idx, -1 if none
+    static public int next(long[] mask, int idx) {
+        int w = idx >>> 6;
+        if (w >= mask.length)
+            return -1;
+        long word = mask[w] & (-1L << idx);
+        while (true) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == mask.length)
+                return -1;
+            word = mask[w];
+        }
+    }
+}
@@ -33,7 +33,8 @@ public class Building extends Entity {
     public void setViewer(BuildingView viewer) { this.viewer = viewer; }
 
     public void doDispose() {
-        this.viewer.doDispose();
+        if (this.viewer != null)
+            this.viewer.doDispose();
     }
 
     static public BUILDING_TYPE convertType(String string) {
@@ -13,6 +13,11 @@ public class Cell extends Entity {
 
     private boolean mineSpot;
 
+    // per-game rules and bitboard mirror, null for standalone cells
+    private GameContext context;
+    private Board board;
+    private int index;
+
     public Cell(int x, int y) {
         super(x, y, -1);
         this.unit = null;
@@ -24,11 +29,36 @@ public class Cell extends Entity {
         this.mineSpot = false;
     }
 
+    public Cell(int x, int y, GameContext context, Board board) {
+        this(x, y);
+        this.context = context;
+        this.board = board;
+        this.index = board.getIndex(x, y);
+    }
+
+    public int getIndex() { return this.index; }
+
+    @Override
+    public void setOwner(int owner) {
+        int oldOwner = this.getOwner();
+        super.setOwner(owner);
+        if (this.board != null && oldOwner != owner)
+            this.board.onOwnerChange(this.index, oldOwner, owner);
+    }
+
     public Unit getUnit() { return this.unit; }
-    public void setUnit(Unit unit) { this.unit = unit; }
+    public void setUnit(Unit unit) {
+        this.unit = unit;
+        if (this.board != null)
+            this.board.onUnitChange(this.index, unit);
+    }
 
     public Building getBuilding() { return this.building; }
-    public void setBuilding(Building building) { this.building = building; }
+    public void setBuilding(Building building) {
+        this.building = building;
+        if (this.board != null)
+            this.board.onBuildingChange(this.index, building);
+    }
 
     public Cell[] getNeighbours() { return this.neighbours; }
 
@@ -42,14 +72,29 @@ public class Cell extends Entity {
     public void setNeighbour(int idx, Cell cell) { this.neighbours[idx] = cell; }
 
     public boolean isActive() { return this.active; }
-    public void setActive() { this.active = true; }
-    public void setInactive() { this.active = false; }
+    public void setActive() {
+        this.active = true;
+        if (this.board != null)
+            this.board.onActiveChange(this.index, true);
+    }
+    public void setInactive() {
+        this.active = false;
+        if (this.board != null)
+            this.board.onActiveChange(this.index, false);
+    }
 
     public boolean isMineSpot() { return this.mineSpot; }
-    public void setMineSpot() { this.mineSpot = true; }
+    public void setMineSpot() {
+        this.mineSpot = true;
+        if (this.board != null)
+            this.board.onMineSpot(this.index);
+    }
 
     public boolean isFree() { return this.unit == null && this.building == null; }
     public boolean isCapturable(int playerId, int level) {
+        if (this.board != null)
+            return level >= this.board.getCaptureLevel(playerId, this.index);
+
         // not on enemy active cells protected by towers
         if (this.getOwner() != playerId && this.isActive() && this.isProtected() && level < CAPTURE_LEVEL) {
             return false;
@@ -73,7 +118,8 @@ public class Cell extends Entity {
 
         // cannot kill enemy unit if level too small
         if (this.unit != null) {
-            if (level != MAX_LEVEL && level <= this.unit.getLevel()) {
+            int maxLevel = this.context == null ? MAX_LEVEL : this.context.getMaxLevel();
+            if (level != maxLevel && level <= this.unit.getLevel()) {
                 return false;
             }
         }
@@ -82,6 +128,9 @@ public class Cell extends Entity {
     }
 
     public boolean isProtected() {
+        if (this.board != null)
+            return this.board.isProtected(this.getOwner(), this.index);
+
         // has a tower on it
         if (this.building != null && this.building.getType() == BUILDING_TYPE.TOWER)
             return true;
@@ -98,6 +147,9 @@ public class Cell extends Entity {
     }
 
     public boolean isPlayable(int playerId) {
+        if (this.board != null)
+            return this.board.isPlayable(playerId, this.index);
+
         // return true iif owned and active or next to an owned and active cell
         if (this.getOwner() == playerId && this.isActive()) {
             return true;
@@ -0,0 +1,159 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Single pass over a player's output line, without allocating. The line is split on ';'
+// like split(";"), each command is trimmed and must be one of:
+//   WAIT
+//   MSG <text>                    text up to the first line terminator
+//   MOVE <id> <x> <y>
+//   TRAIN <level> <x> <y>
+//   BUILD MINE|TOWER <x> <y>
+// Fields are separated by single spaces, numbers are [0-9]* (BAD_NUMBER if empty or above Integer.MAX_VALUE),
+// and a command may end with one line terminator. Anything else is UNRECOGNISED.
+// Each command is read into primitive fields; its text is only built on demand.
+public class CommandTokenizer {
+    static public final int WAIT = 0;
+    static public final int MSG = 1;
+    static public final int MOVE = 2;
+    static public final int TRAIN = 3;
+    static public final int BUILD = 4;
+    // matched MOVE, TRAIN or BUILD whose numbers Integer.parseInt rejects
+    static public final int BAD_NUMBER = 5;
+    static public final int UNRECOGNISED = 6;
+
+    private String line;
+    private int position;
+    private int limit;
+
+    // current command, trimmed bounds in line
+    private int kind;
+    private int start;
+    private int end;
+    private int idOrLevel;
+    private int x;
+    private int y;
+    private BUILDING_TYPE buildType;
+
+    public void reset(String line) {
+        this.line = line;
+        this.position = 0;
+        // split drops trailing empty strings, but keeps the whole input when there is no separator
+        int limit = line.length();
+        while (limit > 0 && line.charAt(limit - 1) == ';')
+            --limit;
+        this.limit = limit == 0 && !line.isEmpty() ? -1 : limit;
+    }
+
+    // reads the next command, false when there is none left
+    public boolean next() {
+        if (this.position > this.limit)
+            return false;
+        int partEnd = this.line.indexOf(';', this.position);
+        if (partEnd < 0 || partEnd > this.limit)
+            partEnd = this.limit;
+
+        int start = this.position;
+        int end = partEnd;
+        this.position = partEnd + 1;
+        while (start < end && this.line.charAt(start) <= ' ')
+            ++start;
+        while (end > start && this.line.charAt(end - 1) <= ' ')
+            --end;
+        this.start = start;
+        this.end = end;
+        this.kind = parse();
+        return true;
+    }
+
+    public int getKind() { return this.kind; }
+    public int getIdOrLevel() { return this.idOrLevel; }
+    public int getX() { return this.x; }
+    public int getY() { return this.y; }
+    public BUILDING_TYPE getBuildType() { return this.buildType; }
+
+    // trimmed text of the command
+    public String getCommand() { return this.line.substring(this.start, this.end); }
+    public String getMessage() { return this.line.substring(this.start + 4, this.end); }
+
+    private int parse() {
+        if (matches(this.start, "WAIT") && this.end - this.start == 4)
+            return WAIT;
+
+        if (matches(this.start, "MSG ")) {
+            // (.*)$ : up to the first line terminator, which may only be the last one
+            int idx = this.start + 4;
+            while (idx < this.end && !isLineTerminator(this.line.charAt(idx)))
+                ++idx;
+            if (isEndOfInput(idx))
+                return MSG;
+        }
+
+        int idx;
+        int type = -1;
+        if (matches(this.start, "MOVE ")) {
+            type = MOVE;
+            idx = this.start + 5;
+        } else if (matches(this.start, "TRAIN ")) {
+            type = TRAIN;
+            idx = this.start + 6;
+        } else if (matches(this.start, "BUILD MINE ")) {
+            type = BUILD;
+            this.buildType = BUILDING_TYPE.MINE;
+            idx = this.start + 11;
+        } else if (matches(this.start, "BUILD TOWER ")) {
+            type = BUILD;
+            this.buildType = BUILDING_TYPE.TOWER;
+            idx = this.start + 12;
+        } else {
+            return UNRECOGNISED;
+        }
+
+        // ([0-9]*) ([0-9]*) ([0-9]*)$, or two numbers for BUILD
+        boolean valid = true;
+        int count = type == BUILD ? 2 : 3;
+        for (int n = 0; n < count; ++n) {
+            if (n > 0) {
+                if (idx >= this.end || this.line.charAt(idx) != ' ')
+                    return UNRECOGNISED;
+                ++idx;
+            }
+            int digitsStart = idx;
+            long value = 0;
+            while (idx < this.end && this.line.charAt(idx) >= '0' && this.line.charAt(idx) <= '9') {
+                if (value <= Integer.MAX_VALUE)
+                    value = 10 * value + (this.line.charAt(idx) - '0');
+                ++idx;
+            }
+            if (idx == digitsStart || value > Integer.MAX_VALUE)
+                valid = false;
+            int number = (int) value;
+            if (count == 3 && n == 0)
+                this.idOrLevel = number;
+            else if (n == count - 2)
+                this.x = number;
+            else
+                this.y = number;
+        }
+        if (!isEndOfInput(idx))
+            return UNRECOGNISED;
+        return valid ? type : BAD_NUMBER;
+    }
+
+    private boolean matches(int idx, String prefix) {
+        return this.end - idx >= prefix.length() && this.line.startsWith(prefix, idx);
+    }
+
+    // where $ matches without MULTILINE: at the end, or before a final line terminator
+    private boolean isEndOfInput(int idx) {
+        if (idx == this.end)
+            return true;
+        if (idx == this.end - 1)
+            return isLineTerminator(this.line.charAt(idx));
+        return idx == this.end - 2 && this.line.charAt(idx) == '\r' && this.line.charAt(idx + 1) == '\n';
+    }
+
+    static private boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -1,13 +1,27 @@
 package com.codingame.antiyoy;
 
-import java.util.regex.Pattern;
-
 public final class Constants {
     static public final int MAP_WIDTH = 12;
     static public final int MAP_HEIGHT = 12;
+    // bounds for the map size given in the game parameters (large-map mode),
+    // up to the largest square map whose turn input fits RUNNER_INPUT_CAPACITY: 147 rows of 148 chars plus the reserve
+    static public final int MAP_MIN_SIZE = 12;
+    static public final int MAP_MAX_SIZE = 147;
+    // the runner reads each referee command in a 30000 char buffer: room for a player's turn input, header excluded
+    static public final int RUNNER_INPUT_CAPACITY = 29900;
+    // and a frame of view data in a 100000 char buffer, the first frame holding every cell
+    static public final int RUNNER_VIEW_CAPACITY = 100000;
+    // turn input kept for gold, units and buildings when checking a map size, about 400 entity lines
+    static public final int INPUT_ENTITY_RESERVE = 8000;
+    // view data per cell on the first frame, measured up to 24x24: the viewer tops out at 24x24 (576 cells)
+    static public final int VIEW_CHARS_PER_CELL = 170;
+    // the SDK's game summary quota per frame
+    static public final int GAME_SUMMARY_CAPACITY = 800;
 
     static public final int MAX_TURNS = 100;
     static public final int PLAYER_COUNT = 2;
+    // ms per frame, and per action when a frame holds a whole turn
+    static public final int FRAME_DURATION = 400;
 
     static public final int VOID = -2;
     static public final int NEUTRAL= -1;
@@ -25,9 +39,9 @@ public final class Constants {
     static public final int UNIT_UPKEEP[] = {0, 1, 4, 20};
     static public final int CAPTURE_LEVEL = 3;
 
-    // league constants
-    static public int MAX_MOVE_LENGTH = 1;
-    static public int MAX_LEVEL = 3;
+    // league constants, defaults of GameContext
+    static public final int MAX_MOVE_LENGTH = 1;
+    static public final int MAX_LEVEL = 3;
 
     public enum ACTIONTYPE {MOVE, BUILD, TRAIN}
 
@@ -35,12 +49,6 @@ public final class Constants {
 
     public enum LEAGUE {WOOD3, WOOD2, WOOD1, BRONZE}
 
-    public static final Pattern MOVETRAIN_PATTERN = Pattern.compile("^(MOVE|TRAIN) ([0-9]*) ([0-9]*) ([0-9]*)$");
-    public static final Pattern MOVE_PATTERN = Pattern.compile("^MOVE ([0-9]*) ([0-9]*) ([0-9]*)$");
-    public static final Pattern TRAIN_PATTERN = Pattern.compile("^TRAIN ([0-9]*) ([0-9]*) ([0-9]*)$");
-    public static final Pattern MSG_PATTERN = Pattern.compile("^MSG (.*)$");
-    public  static final Pattern BUILD_PATTERN = Pattern.compile("^BUILD (TOWER|MINE) ([0-9]*) ([0-9]*)$");
-
     public static final int BUILDING_COST(BUILDING_TYPE type) {
         switch (type) {
             case MINE:
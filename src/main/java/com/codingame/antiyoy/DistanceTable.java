@@ -0,0 +1,190 @@
+package com.codingame.antiyoy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// All-pairs distances stored as unsigned bytes, or unsigned shorts above 255 cells.
+// On a point symmetric map d(i, j) == d(sym(i), sym(j)), so only the first half of
+// the source rows is kept. Maps above MAX_SIZE cells get no table: Pathfinding runs
+// one bfs per target instead.
+// When the "antiyoy.distanceCache" system property names a directory, tables are
+// written there keyed by a hash of the neighbour graph and memory mapped on reuse.
+public class DistanceTable {
+    static public final String CACHE_PROPERTY = "antiyoy.distanceCache";
+
+    // every finite distance is below the cell count, the highest entry value is kept for "unreachable"
+    static private final int BYTE_MAX_SIZE = 0xFF;
+    // 64x64, a 16 MB table: the V*V/2 entries of larger maps would not fit parallel games
+    static public final int MAX_SIZE = 4096;
+
+    static private final int MAGIC = 0x44495354; // "DIST"
+    static private final int HEADER_SIZE = 4 * 4 + 8;
+
+    private final int size;
+    private final int rows;
+    private final int infinity;
+    private final boolean wide;
+    private final ByteBuffer table;
+
+    private DistanceTable(int size, int rows, ByteBuffer table) {
+        this.size = size;
+        this.rows = rows;
+        this.infinity = size + 1;
+        this.wide = isWide(size);
+        this.table = table;
+    }
+
+    public int get(int fromId, int toId) {
+        if (fromId >= this.rows) {
+            fromId = this.size - 1 - fromId;
+            toId = this.size - 1 - toId;
+        }
+        int entry = fromId * this.size + toId;
+        int distance = this.wide ? this.table.getChar(2 * entry) : this.table.get(entry) & 0xFF;
+        return distance == getUnreachable(this.size) ? this.infinity : distance;
+    }
+
+    static private boolean isWide(int size) { return size > BYTE_MAX_SIZE; }
+    static private int getEntryBytes(int size) { return isWide(size) ? 2 : 1; }
+    static private int getUnreachable(int size) { return isWide(size) ? 0xFFFF : 0xFF; }
+
+    // adjacency holds 4 neighbour ids per cell, -1 for none
+    static public DistanceTable create(int width, int height, int[] adjacency) {
+        int size = width * height;
+        int rows = isSymmetric(size, adjacency) ? (size + 1) / 2 : size;
+        long hash = hash(width, height, adjacency);
+
+        String cacheDir = System.getProperty(CACHE_PROPERTY);
+        Path path = cacheDir == null ? null : Paths.get(cacheDir, String.format("%dx%d-%016x.dist", width, height, hash));
+
+        if (path != null && Files.exists(path)) {
+            try {
+                ByteBuffer mapped = map(path, width, height, rows, hash);
+                if (mapped != null)
+                    return new DistanceTable(size, rows, mapped);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+
+        ByteBuffer table = compute(size, rows, adjacency);
+        if (path != null) {
+            try {
+                write(path, width, height, rows, hash, table);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return new DistanceTable(size, rows, table);
+    }
+
+    static private ByteBuffer compute(int size, int rows, int[] adjacency) {
+        ByteBuffer table = ByteBuffer.allocate(rows * size * getEntryBytes(size));
+        boolean wide = isWide(size);
+        int unreachable = getUnreachable(size);
+        // the grid is unweighted: one bfs per source cell, small enough to run in the caller's thread
+        int[] row = new int[size];
+        int[] queue = new int[size];
+        for (int source = 0; source < rows; ++source) {
+            Arrays.fill(row, unreachable);
+            row[source] = 0;
+
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = source;
+            while (head < tail) {
+                int cellId = queue[head++];
+                int next = row[cellId] + 1;
+                for (int direction = 0; direction < 4; ++direction) {
+                    int neighbourId = adjacency[4 * cellId + direction];
+                    if (neighbourId >= 0 && row[neighbourId] == unreachable) {
+                        row[neighbourId] = next;
+                        queue[tail++] = neighbourId;
+                    }
+                }
+            }
+
+            for (int distance : row) {
+                if (wide)
+                    table.putChar((char) distance);
+                else
+                    table.put((byte) distance);
+            }
+        }
+        table.flip();
+        return table;
+    }
+
+    static private boolean isSymmetric(int size, int[] adjacency) {
+        // cell i links to j in direction d iif sym(i) links to sym(j) in the opposite direction
+        for (int cellId = 0; cellId < size; ++cellId) {
+            int symId = size - 1 - cellId;
+            for (int direction = 0; direction < 4; ++direction) {
+                int neighbourId = adjacency[4 * cellId + direction];
+                int expected = neighbourId < 0 ? -1 : size - 1 - neighbourId;
+                if (adjacency[4 * symId + (direction + 2) % 4] != expected)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    // 64-bit FNV-1a over the dimensions and the neighbour graph, each int as 4 little-endian bytes (-1 for no neighbour):
+    // cache file names depend on it
+    static private long hash(int width, int height, int[] adjacency) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, width);
+        hash = hash(hash, height);
+        for (int neighbourId : adjacency)
+            hash = hash(hash, neighbourId);
+        return hash;
+    }
+
+    static private long hash(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8)
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * 0x100000001b3L;
+        return hash;
+    }
+
+    static private ByteBuffer map(Path path, int width, int height, int rows, long hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = HEADER_SIZE + (long) rows * width * height * getEntryBytes(width * height);
+            if (channel.size() != length)
+                return null;
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != width || mapped.getInt(8) != height
+                    || mapped.getInt(12) != rows || mapped.getLong(16) != hash)
+                return null;
+            mapped.position(HEADER_SIZE);
+            return mapped.slice();
+        }
+    }
+
+    static private void write(Path path, int width, int height, int rows, long hash, ByteBuffer table) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(width).putInt(height).putInt(rows).putLong(hash).flip();
+
+        // write aside then rename, so parallel games never map a partial file
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), "dist", ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.write(header);
+            ByteBuffer body = table.duplicate();
+            while (body.hasRemaining())
+                channel.write(body);
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+}
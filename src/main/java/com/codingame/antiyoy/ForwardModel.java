@@ -0,0 +1,947 @@
+package com.codingame.antiyoy;
+
+import java.util.Arrays;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// View-free copy of the rules on flat per-cell arrays, for search and playouts.
+// A state is a decision point: the player to act has had initTurn applied.
+// Actions are packed longs (see move/train/build) and are checked like the Referee does.
+public class ForwardModel {
+    // action encoding: type << 48 | argument << 32 | source cell << 16 | target cell
+    // type is the ACTIONTYPE ordinal, argument the unit level or the BUILDING_TYPE ordinal
+    static public final int MOVE = 0;
+    static public final int BUILD = 1;
+    static public final int TRAIN = 2;
+
+    static public long move(int fromIdx, int toIdx) { return ((long) MOVE << 48) | ((long) fromIdx << 16) | toIdx; }
+    static public long train(int level, int idx) { return ((long) TRAIN << 48) | ((long) level << 32) | idx; }
+    static public long build(BUILDING_TYPE type, int idx) { return ((long) BUILD << 48) | ((long) type.ordinal() << 32) | idx; }
+
+    static public int getActionType(long action) { return (int) (action >>> 48); }
+    static public int getActionArgument(long action) { return (int) (action >>> 32) & 0xFFFF; }
+    static public int getActionSource(long action) { return (int) (action >>> 16) & 0xFFFF; }
+    static public int getActionTarget(long action) { return (int) action & 0xFFFF; }
+
+    static private final int[][] ORDERS = {{UP, RIGHT, DOWN, LEFT}, {DOWN, LEFT, UP, RIGHT}};
+    static private final BUILDING_TYPE[] BUILDING_TYPES = BUILDING_TYPE.values();
+    static private final byte NO_BUILDING = -1;
+
+    // immutable, shared by all copies
+    static private class Topology {
+        final int width;
+        final int height;
+        final int size;
+        final LEAGUE league;
+        final int maxMoveLength;
+        final int maxLevel;
+        final int maxActionCount;
+        final int[] neighbours;
+        final boolean[] voids;
+        final boolean[] mineSpots;
+        final int[] hqs;
+        final DistanceTable distances;
+        final MapAnalysis analysis;
+
+        // per thread bfs buffers
+        final ThreadLocal<Scratch> scratch;
+
+        Topology(GameState gameState) {
+            GameContext context = gameState.getContext();
+            this.width = context.getWidth();
+            this.height = context.getHeight();
+            this.size = this.width * this.height;
+            this.league = context.getLeague();
+            this.maxMoveLength = context.getMaxMoveLength();
+            this.maxLevel = context.getMaxLevel();
+            this.maxActionCount = context.getMaxActionCount();
+            this.neighbours = new int[4 * this.size];
+            this.voids = new boolean[this.size];
+            this.mineSpots = new boolean[this.size];
+            for (int idx = 0; idx < this.size; ++idx) {
+                Cell cell = gameState.getCell(idx);
+                this.voids[idx] = cell.getOwner() == VOID;
+                this.mineSpots[idx] = cell.isMineSpot();
+                for (int direction = 0; direction < 4; ++direction) {
+                    Cell neighbour = cell.getNeighbour(direction);
+                    this.neighbours[4 * idx + direction] = neighbour == null ? -1 : neighbour.getIndex();
+                }
+            }
+            this.hqs = new int[PLAYER_COUNT];
+            for (Building HQ : gameState.getHQs())
+                this.hqs[HQ.getOwner()] = HQ.getCell().getIndex();
+            this.distances = gameState.getPathfinding().getDistanceTable();
+            this.analysis = gameState.getMapAnalysis();
+
+            int size = this.size;
+            this.scratch = ThreadLocal.withInitial(() -> new Scratch(size));
+        }
+
+        int getDistance(int fromIdx, int toIdx, Scratch scratch) {
+            if (this.distances != null)
+                return this.distances.get(fromIdx, toIdx);
+            int[] row = scratch.targetDistances;
+            if (scratch.cachedTarget != toIdx) {
+                // reverse bfs from the target on the directed neighbour graph
+                Arrays.fill(row, this.size + 1);
+                row[toIdx] = 0;
+                int[] queue = scratch.targetQueue;
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = toIdx;
+                while (head < tail) {
+                    int idx = queue[head++];
+                    for (int direction = 0; direction < 4; ++direction) {
+                        int previous = getGridNeighbour(idx, direction);
+                        if (previous >= 0 && row[previous] > this.size && this.neighbours[4 * previous + (direction + 2) % 4] == idx) {
+                            row[previous] = row[idx] + 1;
+                            queue[tail++] = previous;
+                        }
+                    }
+                }
+                scratch.cachedTarget = toIdx;
+            }
+            return row[fromIdx];
+        }
+
+        int getGridNeighbour(int idx, int direction) {
+            int x = idx % this.width;
+            switch (direction) {
+                case UP:
+                    return idx >= this.width ? idx - this.width : -1;
+                case RIGHT:
+                    return x < this.width - 1 ? idx + 1 : -1;
+                case DOWN:
+                    return idx + this.width < this.size ? idx + this.width : -1;
+                default:
+                    return x > 0 ? idx - 1 : -1;
+            }
+        }
+    }
+
+    static private class Scratch {
+        final int[] queue;
+        final int[] visited;
+        int visitStamp = 0;
+
+        // distances to the last target asked, without a table
+        final int[] targetDistances;
+        final int[] targetQueue;
+        int cachedTarget = -1;
+
+        Scratch(int size) {
+            this.queue = new int[size];
+            this.visited = new int[size];
+            this.targetDistances = new int[size];
+            this.targetQueue = new int[size];
+        }
+
+        // a new stamp marks every cell as unvisited without clearing the array
+        int nextStamp() {
+            if (++this.visitStamp == 0) {
+                Arrays.fill(this.visited, 0);
+                this.visitStamp = 1;
+            }
+            return this.visitStamp;
+        }
+    }
+
+    private final Topology topology;
+
+    // per cell state
+    private byte[] owner;
+    private boolean[] active;
+    private byte[] building;
+    private byte[] unitLevel;
+    private int[] unitId;
+    private boolean[] unitCanMove;
+
+    // per player state
+    private int[] golds;
+    private int[] mineCounts;
+
+    // running totals, kept by write(): income and cell count of the active cells, cost of the units
+    private int[] incomes;
+    private int[] cellCounts;
+    private int[] unitCosts;
+
+    // cell of each living unit by id, -1 if dead, kept by write()
+    private int[] unitCells;
+
+    private int currentPlayer;
+    private int turn;
+    private int nextUnitId;
+    private int loser = -1;
+    private boolean gameOver;
+
+    // incremental Zobrist hash, same keys as GameState
+    private long hash;
+
+    // undo journal, null when not recording: one entry per changed value,
+    // field << 56 | cell or player << 32 | previous value
+    private long[] journal;
+    private int journalSize;
+
+    // snapshot of a game before its first turn, or after initTurn(currentPlayer) in turn 'turn'
+    public ForwardModel(GameState gameState, int currentPlayer, int turn) {
+        this.topology = new Topology(gameState);
+        int size = this.topology.size;
+        this.owner = new byte[size];
+        this.active = new boolean[size];
+        this.building = new byte[size];
+        this.unitLevel = new byte[size];
+        this.unitId = new int[size];
+        this.unitCanMove = new boolean[size];
+        this.golds = new int[PLAYER_COUNT];
+        this.mineCounts = new int[PLAYER_COUNT];
+        this.incomes = new int[PLAYER_COUNT];
+        this.cellCounts = new int[PLAYER_COUNT];
+        this.unitCosts = new int[PLAYER_COUNT];
+
+        for (int idx = 0; idx < size; ++idx) {
+            Cell cell = gameState.getCell(idx);
+            this.owner[idx] = (byte) cell.getOwner();
+            this.active[idx] = cell.isActive();
+            this.building[idx] = NO_BUILDING;
+            if (cell.getBuilding() != null)
+                this.building[idx] = (byte) cell.getBuilding().getType().ordinal();
+            Unit unit = cell.getUnit();
+            if (unit != null) {
+                this.unitLevel[idx] = (byte) unit.getLevel();
+                this.unitId[idx] = unit.getId();
+                this.unitCanMove[idx] = unit.canPlay();
+            }
+        }
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            this.golds[playerId] = gameState.getGold(playerId);
+            this.mineCounts[playerId] = gameState.getMineCount(playerId);
+        }
+
+        this.currentPlayer = currentPlayer;
+        this.turn = turn;
+        this.nextUnitId = gameState.getContext().peekUnitId();
+        this.hash = computeHash();
+
+        this.unitCells = new int[Math.max(this.nextUnitId, size)];
+        Arrays.fill(this.unitCells, -1);
+        for (int idx = 0; idx < size; ++idx) {
+            addCellTotals(idx, 1);
+            addUnitCell(idx);
+        }
+    }
+
+    public ForwardModel(GameState gameState) {
+        this(gameState, -1, 0);
+    }
+
+    private ForwardModel(ForwardModel other) {
+        this.topology = other.topology;
+        this.owner = other.owner.clone();
+        this.active = other.active.clone();
+        this.building = other.building.clone();
+        this.unitLevel = other.unitLevel.clone();
+        this.unitId = other.unitId.clone();
+        this.unitCanMove = other.unitCanMove.clone();
+        this.golds = other.golds.clone();
+        this.mineCounts = other.mineCounts.clone();
+        this.incomes = other.incomes.clone();
+        this.cellCounts = other.cellCounts.clone();
+        this.unitCosts = other.unitCosts.clone();
+        this.unitCells = other.unitCells.clone();
+        this.currentPlayer = other.currentPlayer;
+        this.turn = other.turn;
+        this.nextUnitId = other.nextUnitId;
+        this.loser = other.loser;
+        this.gameOver = other.gameOver;
+        this.hash = other.hash;
+    }
+
+    // copies do not carry the journal
+    public ForwardModel copy() {
+        return new ForwardModel(this);
+    }
+
+    // make/unmake: record every change from now on, rollback(mark) undoes back to that point
+    public int mark() {
+        if (this.journal == null)
+            this.journal = new long[256];
+        return this.journalSize;
+    }
+
+    public void rollback(int mark) {
+        while (this.journalSize > mark) {
+            long entry = this.journal[--this.journalSize];
+            write((int) (entry >>> 56), (int) (entry >>> 32) & 0xFFFFFF, (int) entry);
+        }
+    }
+
+    // stop recording and forget the entries
+    public void clearJournal() {
+        this.journal = null;
+        this.journalSize = 0;
+    }
+
+    // getters
+    public int getWidth() { return this.topology.width; }
+    public int getHeight() { return this.topology.height; }
+    public int getSize() { return this.topology.size; }
+    public int getIndex(int x, int y) { return x + this.topology.width * y; }
+    public LEAGUE getLeague() { return this.topology.league; }
+    public int getMaxLevel() { return this.topology.maxLevel; }
+
+    public int getCurrentPlayer() { return this.currentPlayer; }
+    public int getTurn() { return this.turn; }
+    public boolean isGameOver() { return this.gameOver; }
+    // player whose HQ was captured, -1 if none
+    public int getLoser() { return this.loser; }
+    public long getHash() { return this.hash; }
+
+    public int getGold(int playerId) { return this.golds[playerId]; }
+    public int getOwner(int idx) { return this.topology.voids[idx] ? VOID : this.owner[idx]; }
+    public boolean isActive(int idx) { return this.active[idx]; }
+    public boolean isVoid(int idx) { return this.topology.voids[idx]; }
+    public boolean isMineSpot(int idx) { return this.topology.mineSpots[idx]; }
+    public int getHQ(int playerId) { return this.topology.hqs[playerId]; }
+    public MapAnalysis getMapAnalysis() { return this.topology.analysis; }
+    public int getNeighbour(int idx, int direction) { return this.topology.neighbours[4 * idx + direction]; }
+    public BUILDING_TYPE getBuilding(int idx) { return this.building[idx] == NO_BUILDING ? null : BUILDING_TYPES[this.building[idx]]; }
+    public int getUnitLevel(int idx) { return this.unitLevel[idx]; }
+    public int getUnitId(int idx) { return this.unitId[idx]; }
+    public boolean canUnitMove(int idx) { return this.unitLevel[idx] > 0 && this.unitCanMove[idx]; }
+    public boolean isFree(int idx) { return this.unitLevel[idx] == 0 && this.building[idx] == NO_BUILDING; }
+
+    // cell of the unit with this id, -1 if dead
+    public int getUnitCell(int id) { return id >= 0 && id < this.unitCells.length ? this.unitCells[id] : -1; }
+    public int getIncome(int playerId) { return this.incomes[playerId]; }
+    // active cells owned
+    public int getCellCount(int playerId) { return this.cellCounts[playerId]; }
+    // gold plus the cost of living units
+    public int getScore(int playerId) { return this.golds[playerId] + this.unitCosts[playerId]; }
+
+    public int getBuildingCost(BUILDING_TYPE type, int playerId) {
+        int cost = BUILDING_COST(type);
+        if (type == BUILDING_TYPE.MINE)
+            cost += MINE_INCREMENT * this.mineCounts[playerId];
+        return cost;
+    }
+
+    // rules queries, as on Cell
+    private boolean isActiveOwned(int playerId, int idx) {
+        return idx >= 0 && this.owner[idx] == playerId && this.active[idx];
+    }
+
+    public boolean isPlayable(int idx, int playerId) {
+        Topology topology = this.topology;
+        for (int direction = 0; direction < 4; ++direction) {
+            if (isActiveOwned(playerId, topology.getGridNeighbour(idx, direction)))
+                return true;
+        }
+        return isActiveOwned(playerId, idx);
+    }
+
+    public boolean isProtected(int idx) {
+        if (this.building[idx] == BUILDING_TYPE.TOWER.ordinal())
+            return true;
+        int cellOwner = this.owner[idx];
+        if (cellOwner < 0)
+            return false;
+        for (int direction = 0; direction < 4; ++direction) {
+            int neighbour = this.topology.getGridNeighbour(idx, direction);
+            if (isActiveOwned(cellOwner, neighbour) && this.building[neighbour] == BUILDING_TYPE.TOWER.ordinal())
+                return true;
+        }
+        return false;
+    }
+
+    public boolean isCapturable(int idx, int playerId, int level) {
+        int cellOwner = this.owner[idx];
+        // not on enemy active cells protected by towers
+        if (cellOwner != playerId && this.active[idx] && isProtected(idx) && level < CAPTURE_LEVEL)
+            return false;
+        // not on enemy tower even if inactive
+        if (cellOwner != playerId && this.building[idx] == BUILDING_TYPE.TOWER.ordinal() && level < CAPTURE_LEVEL)
+            return false;
+        if (isFree(idx))
+            return true;
+        // On own cell: not (since not free)
+        if (cellOwner == playerId)
+            return false;
+        // cannot kill enemy unit if level too small
+        if (this.unitLevel[idx] > 0 && level != this.topology.maxLevel && level <= this.unitLevel[idx])
+            return false;
+        return true;
+    }
+
+    // destination of a unit ordered to move toward target, its own cell if none
+    public int getNextCell(int fromIdx, int targetIdx) {
+        Topology topology = this.topology;
+        Scratch scratch = topology.scratch.get();
+        int[] queue = scratch.queue;
+        int[] visited = scratch.visited;
+        int stamp = scratch.nextStamp();
+        int playerId = this.owner[fromIdx];
+        int level = this.unitLevel[fromIdx];
+        int[] order = ORDERS[playerId];
+
+        // queue entries are depth * size + cell, each cell is queued at most once
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = fromIdx;
+        visited[fromIdx] = stamp;
+
+        int bestCell = fromIdx;
+        int bestDistance = topology.getDistance(fromIdx, targetIdx, scratch);
+        while (head < tail) {
+            int entry = queue[head++];
+            int depth = entry / topology.size;
+            int idx = entry % topology.size;
+
+            // new best: free and nearer
+            int distance = topology.getDistance(idx, targetIdx, scratch);
+            if (distance < bestDistance && isCapturable(idx, playerId, level)) {
+                bestDistance = distance;
+                bestCell = idx;
+            }
+
+            if (depth < topology.maxMoveLength && this.owner[idx] == playerId) {
+                // we can move further
+                for (int direction : order) {
+                    int neighbour = topology.neighbours[4 * idx + direction];
+                    if (neighbour >= 0 && visited[neighbour] != stamp) {
+                        visited[neighbour] = stamp;
+                        queue[tail++] = (depth + 1) * topology.size + neighbour;
+                    }
+                }
+            }
+        }
+        return bestCell;
+    }
+
+    // legal actions
+    // room needed by getLegalActions, see GameContext.getMaxActionCount
+    public int getMaxActionCount() { return this.topology.maxActionCount; }
+
+    // every action of the current player that apply() accepts, MOVE once per destination, returns the count
+    public int getLegalActions(long[] out) {
+        if (this.gameOver || this.currentPlayer < 0)
+            return 0;
+        Topology topology = this.topology;
+        int playerId = this.currentPlayer;
+        int gold = this.golds[playerId];
+        int maxLevel = topology.league == LEAGUE.WOOD3 ? 1 : topology.maxLevel;
+        boolean canBuild = topology.league != LEAGUE.WOOD3 && topology.league != LEAGUE.WOOD2;
+        int mineCost = getBuildingCost(BUILDING_TYPE.MINE, playerId);
+        int towerCost = getBuildingCost(BUILDING_TYPE.TOWER, playerId);
+
+        int count = 0;
+        for (int idx = 0; idx < topology.size; ++idx) {
+            if (topology.voids[idx] || !isPlayable(idx, playerId))
+                continue;
+            for (int level = 1; level <= maxLevel && gold >= UNIT_COST[level]; ++level) {
+                if (isCapturable(idx, playerId, level))
+                    out[count++] = train(level, idx);
+            }
+            if (canBuild && this.owner[idx] == playerId && isFree(idx)) {
+                if (topology.mineSpots[idx] && gold >= mineCost)
+                    out[count++] = build(BUILDING_TYPE.MINE, idx);
+                else if (!topology.mineSpots[idx] && gold >= towerCost)
+                    out[count++] = build(BUILDING_TYPE.TOWER, idx);
+            }
+        }
+        for (int idx = 0; idx < topology.size; ++idx) {
+            if (this.unitLevel[idx] > 0 && this.owner[idx] == playerId && this.unitCanMove[idx])
+                count = addMoves(idx, out, count);
+        }
+        return count;
+    }
+
+    private int addMoves(int fromIdx, long[] out, int count) {
+        // same search as getNextCell: a MOVE toward a capturable cell in reach lands on it
+        Topology topology = this.topology;
+        Scratch scratch = topology.scratch.get();
+        int[] queue = scratch.queue;
+        int[] visited = scratch.visited;
+        int stamp = scratch.nextStamp();
+        int playerId = this.owner[fromIdx];
+        int level = this.unitLevel[fromIdx];
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = fromIdx;
+        visited[fromIdx] = stamp;
+        while (head < tail) {
+            int entry = queue[head++];
+            int depth = entry / topology.size;
+            int idx = entry % topology.size;
+            if (idx != fromIdx && isCapturable(idx, playerId, level))
+                out[count++] = move(fromIdx, idx);
+
+            if (depth < topology.maxMoveLength && this.owner[idx] == playerId) {
+                for (int direction : ORDERS[playerId]) {
+                    int neighbour = topology.neighbours[4 * idx + direction];
+                    if (neighbour >= 0 && visited[neighbour] != stamp) {
+                        visited[neighbour] = stamp;
+                        queue[tail++] = (depth + 1) * topology.size + neighbour;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // turn flow, as in the Referee
+    // the next player starts their turn, returns false when the game ends on the turn limit
+    public boolean nextPlayer() {
+        if (this.gameOver)
+            return false;
+        setScalar(CURRENT_PLAYER, (this.currentPlayer + 1) % PLAYER_COUNT);
+        if (this.currentPlayer == 0) {
+            setScalar(TURN, this.turn + 1);
+            if (this.turn > MAX_TURNS) {
+                setScalar(GAME_OVER, 1);
+                return false;
+            }
+        }
+        initTurn(this.currentPlayer);
+        return true;
+    }
+
+    // the current player plays actions, then the next player starts their turn
+    public ForwardModel applyTurn(long[] actions, int count) {
+        for (int i = 0; i < count && !this.gameOver; ++i)
+            apply(actions[i]);
+        nextPlayer();
+        return this;
+    }
+
+    public ForwardModel playTurn(long[] actions, int count) {
+        return copy().applyTurn(actions, count);
+    }
+
+    public void initTurn(int playerId) {
+        int size = this.topology.size;
+        // units on cells cut from the HQ die
+        for (int idx = 0; idx < size; ++idx) {
+            if (this.unitLevel[idx] > 0 && this.owner[idx] == playerId && !this.active[idx])
+                killUnit(idx);
+        }
+
+        setGold(playerId, this.golds[playerId] + getIncome(playerId));
+        if (this.golds[playerId] < 0) {
+            // Negative amount of gold: kill all units and reset to 0
+            setGold(playerId, 0);
+            for (int idx = 0; idx < size; ++idx) {
+                if (this.unitLevel[idx] > 0 && this.owner[idx] == playerId)
+                    killUnit(idx);
+            }
+        }
+
+        for (int idx = 0; idx < size; ++idx) {
+            if (this.unitLevel[idx] > 0 && this.owner[idx] == playerId)
+                setUnitCanMove(idx, true);
+        }
+    }
+
+    // plays one action of the current player, false if the Referee would reject it
+    public boolean apply(long action) {
+        if (this.gameOver)
+            return false;
+        int target = getActionTarget(action);
+        if (target >= this.topology.size || this.topology.voids[target])
+            return false;
+
+        boolean done;
+        switch (getActionType(action)) {
+            case MOVE:
+                done = applyMove(getActionSource(action), target);
+                break;
+            case TRAIN:
+                done = applyTrain(getActionArgument(action), target);
+                break;
+            case BUILD:
+                int type = getActionArgument(action);
+                done = type < BUILDING_TYPES.length && applyBuild(BUILDING_TYPES[type], target);
+                break;
+            default:
+                done = false;
+        }
+        if (done)
+            checkForHqCapture();
+        return done;
+    }
+
+    private boolean applyMove(int from, int target) {
+        int playerId = this.currentPlayer;
+        if (from >= this.topology.size || this.unitLevel[from] == 0 || this.owner[from] != playerId || !this.unitCanMove[from])
+            return false;
+
+        int level = this.unitLevel[from];
+        int width = this.topology.width;
+        int distance = Math.abs(from % width - target % width) + Math.abs(from / width - target / width);
+        if (!isCapturable(target, playerId, level) && distance == 1)
+            return false;
+
+        int next = getNextCell(from, target);
+        if (next == from)
+            return false;
+
+        int id = this.unitId[from];
+        clearCell(next);
+        killUnit(from);
+        captureCell(next, playerId);
+        setUnit(next, level, id);
+        return true;
+    }
+
+    private boolean applyTrain(int level, int target) {
+        int playerId = this.currentPlayer;
+        if (this.topology.league == LEAGUE.WOOD3 && level != 1)
+            return false;
+        if (level <= 0 || level > this.topology.maxLevel)
+            return false;
+        if (!isPlayable(target, playerId))
+            return false;
+        if (this.golds[playerId] < UNIT_COST[level])
+            return false;
+        if (!isCapturable(target, playerId, level))
+            return false;
+
+        clearCell(target);
+        captureCell(target, playerId);
+        // cannot play after TRAIN
+        setUnit(target, level, this.nextUnitId);
+        setScalar(NEXT_UNIT_ID, this.nextUnitId + 1);
+        setGold(playerId, this.golds[playerId] - UNIT_COST[level]);
+        return true;
+    }
+
+    private boolean applyBuild(BUILDING_TYPE type, int target) {
+        int playerId = this.currentPlayer;
+        LEAGUE league = this.topology.league;
+        if (league == LEAGUE.WOOD3 || league == LEAGUE.WOOD2 || type == BUILDING_TYPE.HQ)
+            return false;
+        if (!isPlayable(target, playerId))
+            return false;
+        if (!isFree(target) || this.owner[target] != playerId)
+            return false;
+        int cost = getBuildingCost(type, playerId);
+        if (this.golds[playerId] < cost)
+            return false;
+        if (type == BUILDING_TYPE.MINE && !this.topology.mineSpots[target])
+            return false;
+        if (type == BUILDING_TYPE.TOWER && this.topology.mineSpots[target])
+            return false;
+
+        setBuilding(target, type.ordinal());
+        if (type == BUILDING_TYPE.MINE)
+            setMineCount(playerId, this.mineCounts[playerId] + 1);
+        setGold(playerId, this.golds[playerId] - cost);
+        return true;
+    }
+
+    private void checkForHqCapture() {
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            if (this.owner[this.topology.hqs[playerId]] != playerId) {
+                setScalar(LOSER, playerId);
+                setScalar(GAME_OVER, 1);
+            }
+        }
+    }
+
+    private void killUnit(int idx) {
+        setUnitLevel(idx, 0);
+        setUnitCanMove(idx, false);
+    }
+
+    private void clearCell(int idx) {
+        if (this.unitLevel[idx] > 0)
+            killUnit(idx);
+        int type = this.building[idx];
+        if (type != NO_BUILDING && type != BUILDING_TYPE.HQ.ordinal()) {
+            if (type == BUILDING_TYPE.MINE.ordinal())
+                setMineCount(this.owner[idx], this.mineCounts[this.owner[idx]] - 1);
+            setBuilding(idx, NO_BUILDING);
+        }
+    }
+
+    // active cells: owned and connected to the HQ, kept up to date on every capture
+    private void captureCell(int idx, int playerId) {
+        int previousOwner = this.owner[idx];
+        if (previousOwner == playerId)
+            return;
+
+        boolean wasActive = this.active[idx];
+        boolean isHQ = idx == this.topology.hqs[0] || idx == this.topology.hqs[1];
+        setOwner(idx, playerId);
+
+        // losing an inactive cell changes nothing, losing a leaf cannot cut anything off
+        boolean previousDirty = previousOwner >= 0 && wasActive && (countActiveNeighbours(idx, previousOwner) > 1 || isHQ);
+        boolean playerDirty = false;
+        if (isHQ) {
+            playerDirty = true;
+        } else if (countActiveNeighbours(idx, playerId) == 0) {
+            setActive(idx, false);
+        } else {
+            setActive(idx, true);
+            reconnectCells(idx, playerId);
+        }
+
+        for (int p = 0; p < PLAYER_COUNT; ++p) {
+            if ((p == previousOwner && previousDirty) || (p == playerId && playerDirty))
+                computeActiveCells(p);
+        }
+    }
+
+    private int countActiveNeighbours(int idx, int playerId) {
+        int count = 0;
+        for (int direction = 0; direction < 4; ++direction) {
+            if (isActiveOwned(playerId, this.topology.neighbours[4 * idx + direction]))
+                ++count;
+        }
+        return count;
+    }
+
+    private void reconnectCells(int start, int playerId) {
+        // flood from start through inactive owned cells
+        int[] neighbours = this.topology.neighbours;
+        int[] queue = this.topology.scratch.get().queue;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int idx = queue[head++];
+            for (int direction = 0; direction < 4; ++direction) {
+                int neighbour = neighbours[4 * idx + direction];
+                if (neighbour >= 0 && this.owner[neighbour] == playerId && !this.active[neighbour]) {
+                    setActive(neighbour, true);
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    private void computeActiveCells(int playerId) {
+        // flood from the HQ through owned cells, the HQ cell being reactivated even if lost
+        Topology topology = this.topology;
+        Scratch scratch = topology.scratch.get();
+        int[] queue = scratch.queue;
+        int[] visited = scratch.visited;
+        int stamp = scratch.nextStamp();
+
+        int hq = topology.hqs[playerId];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = hq;
+        visited[hq] = stamp;
+        while (head < tail) {
+            int idx = queue[head++];
+            for (int direction = 0; direction < 4; ++direction) {
+                int neighbour = topology.neighbours[4 * idx + direction];
+                if (neighbour >= 0 && this.owner[neighbour] == playerId && visited[neighbour] != stamp) {
+                    visited[neighbour] = stamp;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+
+        setActive(hq, true);
+        for (int idx = 0; idx < topology.size; ++idx) {
+            if (this.owner[idx] == playerId)
+                setActive(idx, visited[idx] == stamp);
+        }
+    }
+
+    // journaled writes
+    static private final int OWNER = 0;
+    static private final int ACTIVE = 1;
+    static private final int BUILDING = 2;
+    static private final int UNIT_LEVEL = 3;
+    static private final int UNIT_ID = 4;
+    static private final int UNIT_CAN_MOVE = 5;
+    static private final int GOLD = 6;
+    static private final int MINE_COUNT = 7;
+    static private final int CURRENT_PLAYER = 8;
+    static private final int TURN = 9;
+    static private final int NEXT_UNIT_ID = 10;
+    static private final int LOSER = 11;
+    static private final int GAME_OVER = 12;
+
+    private void record(int field, int idx, int previous) {
+        if (this.journal == null)
+            return;
+        if (this.journalSize == this.journal.length)
+            this.journal = Arrays.copyOf(this.journal, 2 * this.journalSize);
+        this.journal[this.journalSize++] = ((long) field << 56) | ((long) idx << 32) | (previous & 0xFFFFFFFFL);
+    }
+
+    // sets a value and keeps the hash and the running totals up to date, for setters and rollback alike
+    private void write(int field, int idx, int value) {
+        switch (field) {
+            case OWNER:
+                this.hash ^= Zobrist.owner(idx, this.owner[idx]) ^ Zobrist.owner(idx, value);
+                addCellTotals(idx, -1);
+                this.owner[idx] = (byte) value;
+                addCellTotals(idx, 1);
+                break;
+            case ACTIVE:
+                addCellTotals(idx, -1);
+                this.active[idx] = value != 0;
+                addCellTotals(idx, 1);
+                break;
+            case BUILDING:
+                this.hash ^= getBuildingKey(idx, this.building[idx]) ^ getBuildingKey(idx, value);
+                addCellTotals(idx, -1);
+                this.building[idx] = (byte) value;
+                addCellTotals(idx, 1);
+                break;
+            case UNIT_LEVEL:
+                this.hash ^= getUnitKey(idx, this.unitLevel[idx]) ^ getUnitKey(idx, value);
+                addCellTotals(idx, -1);
+                removeUnitCell(idx);
+                this.unitLevel[idx] = (byte) value;
+                addCellTotals(idx, 1);
+                addUnitCell(idx);
+                break;
+            case UNIT_ID:
+                removeUnitCell(idx);
+                this.unitId[idx] = value;
+                addUnitCell(idx);
+                break;
+            case UNIT_CAN_MOVE: this.unitCanMove[idx] = value != 0; break;
+            case GOLD:
+                this.hash ^= Zobrist.gold(idx, this.golds[idx]) ^ Zobrist.gold(idx, value);
+                this.golds[idx] = value;
+                break;
+            case MINE_COUNT: this.mineCounts[idx] = value; break;
+            case CURRENT_PLAYER:
+                this.hash ^= Zobrist.side(this.currentPlayer) ^ Zobrist.side(value);
+                this.currentPlayer = value;
+                break;
+            case TURN: this.turn = value; break;
+            case NEXT_UNIT_ID: this.nextUnitId = value; break;
+            case LOSER: this.loser = value; break;
+            default: this.gameOver = value != 0;
+        }
+    }
+
+    private void addCellTotals(int idx, int sign) {
+        int cellOwner = this.owner[idx];
+        if (cellOwner < 0)
+            return;
+        int level = this.unitLevel[idx];
+        if (this.active[idx]) {
+            int income = CELL_INCOME - UNIT_UPKEEP[level];
+            if (this.building[idx] == BUILDING_TYPE.MINE.ordinal())
+                income += MINE_INCOME;
+            this.incomes[cellOwner] += sign * income;
+            this.cellCounts[cellOwner] += sign;
+        }
+        if (level > 0)
+            this.unitCosts[cellOwner] += sign * UNIT_COST[level];
+    }
+
+    // dead units keep their id on the cell: only the living one is indexed
+    private void removeUnitCell(int idx) {
+        if (this.unitLevel[idx] > 0)
+            this.unitCells[this.unitId[idx]] = -1;
+    }
+
+    private void addUnitCell(int idx) {
+        if (this.unitLevel[idx] == 0)
+            return;
+        int id = this.unitId[idx];
+        if (id >= this.unitCells.length) {
+            int length = this.unitCells.length;
+            this.unitCells = Arrays.copyOf(this.unitCells, Math.max(2 * length, id + 1));
+            Arrays.fill(this.unitCells, length, this.unitCells.length, -1);
+        }
+        this.unitCells[id] = idx;
+    }
+
+    private void setOwner(int idx, int value) {
+        record(OWNER, idx, this.owner[idx]);
+        write(OWNER, idx, value);
+    }
+
+    private void setActive(int idx, boolean value) {
+        if (this.active[idx] == value)
+            return;
+        record(ACTIVE, idx, this.active[idx] ? 1 : 0);
+        write(ACTIVE, idx, value ? 1 : 0);
+    }
+
+    private void setBuilding(int idx, int value) {
+        record(BUILDING, idx, this.building[idx]);
+        write(BUILDING, idx, value);
+    }
+
+    private void setUnitLevel(int idx, int value) {
+        if (this.unitLevel[idx] == value)
+            return;
+        record(UNIT_LEVEL, idx, this.unitLevel[idx]);
+        write(UNIT_LEVEL, idx, value);
+    }
+
+    private void setUnitCanMove(int idx, boolean value) {
+        if (this.unitCanMove[idx] == value)
+            return;
+        record(UNIT_CAN_MOVE, idx, this.unitCanMove[idx] ? 1 : 0);
+        this.unitCanMove[idx] = value;
+    }
+
+    // the id is set first: a living unit never carries the stale id of a dead one
+    private void setUnit(int idx, int level, int id) {
+        record(UNIT_ID, idx, this.unitId[idx]);
+        write(UNIT_ID, idx, id);
+        setUnitLevel(idx, level);
+        setUnitCanMove(idx, false);
+    }
+
+    private void setGold(int playerId, int value) {
+        record(GOLD, playerId, this.golds[playerId]);
+        write(GOLD, playerId, value);
+    }
+
+    private void setMineCount(int playerId, int value) {
+        record(MINE_COUNT, playerId, this.mineCounts[playerId]);
+        this.mineCounts[playerId] = value;
+    }
+
+    private void setScalar(int field, int value) {
+        switch (field) {
+            case CURRENT_PLAYER: record(field, 0, this.currentPlayer); break;
+            case TURN: record(field, 0, this.turn); break;
+            case NEXT_UNIT_ID: record(field, 0, this.nextUnitId); break;
+            case LOSER: record(field, 0, this.loser); break;
+            default: record(field, 0, this.gameOver ? 1 : 0);
+        }
+        write(field, 0, value);
+    }
+
+    // hashing, units and buildings add nothing when absent
+    private long getUnitKey(int idx, int level) {
+        return level == 0 ? 0 : Zobrist.unit(idx, this.owner[idx], level);
+    }
+
+    private long getBuildingKey(int idx, int type) {
+        if (type == NO_BUILDING)
+            return 0;
+        // a captured HQ still belongs to its player
+        int buildingOwner = this.owner[idx];
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            if (this.topology.hqs[playerId] == idx)
+                buildingOwner = playerId;
+        }
+        return Zobrist.building(idx, buildingOwner, BUILDING_TYPES[type]);
+    }
+
+    // hash of the position from scratch, as GameState.computeHash
+    public long computeHash() {
+        long hash = Zobrist.side(this.currentPlayer);
+        for (int idx = 0; idx < this.topology.size; ++idx)
+            hash ^= Zobrist.owner(idx, this.owner[idx]) ^ getUnitKey(idx, this.unitLevel[idx]) ^ getBuildingKey(idx, this.building[idx]);
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId)
+            hash ^= Zobrist.gold(playerId, this.golds[playerId]);
+        return hash;
+    }
+}
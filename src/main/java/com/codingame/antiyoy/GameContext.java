@@ -0,0 +1,50 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Per-game rules and counters: league limits, map size and unit ids.
+// Each GameState owns one, so several games can run in the same JVM.
+public class GameContext {
+    private final LEAGUE league;
+    private final int width;
+    private final int height;
+    private final int maxMoveLength;
+    private final int maxLevel;
+
+    private int unitIdCount = 1;
+
+    public GameContext(LEAGUE league) {
+        this(league, MAP_WIDTH, MAP_HEIGHT);
+    }
+
+    public GameContext(LEAGUE league, int width, int height) {
+        // Only T1 units in WOOD3, moves are 1 cell in every league
+        this(league, width, height, MAX_MOVE_LENGTH, league == LEAGUE.WOOD3 ? 1 : MAX_LEVEL);
+    }
+
+    public GameContext(LEAGUE league, int width, int height, int maxMoveLength, int maxLevel) {
+        this.league = league;
+        this.width = width;
+        this.height = height;
+        this.maxMoveLength = maxMoveLength;
+        this.maxLevel = maxLevel;
+    }
+
+    public LEAGUE getLeague() { return this.league; }
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public int getMaxMoveLength() { return this.maxMoveLength; }
+    public int getMaxLevel() { return this.maxLevel; }
+
+    // room needed for the legal actions of a position: every TRAIN level and one BUILD per cell,
+    // plus one MOVE per unit and cell in reach
+    public int getMaxActionCount() {
+        int size = this.width * this.height;
+        int reach = Math.min(size, 2 * this.maxMoveLength * (this.maxMoveLength + 1));
+        return (this.maxLevel + 1 + reach) * size;
+    }
+
+    // Grant a unique id
+    public int nextUnitId() { return this.unitIdCount++; }
+    public int peekUnitId() { return this.unitIdCount; }
+}
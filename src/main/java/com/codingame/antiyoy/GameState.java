@@ -11,32 +11,103 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameState {
     private  Cell[][] map;
+    private GameContext context;
+    private int width;
+    private int height;
+    private Board board;
     private long seed;
     private int nbMineSpots;
     //private Vector2[][] mineSpots;
 
     private List<Building> HQs = new ArrayList<>();
-    private ArrayList<Building> buildings = new ArrayList<>();
-    private Map<Integer, Unit> units = new HashMap<>();
+    // living units indexed by id, ids are granted in order and never reused
+    private Unit[] units = new Unit[64];
+    private int unitCount;
+
+    // per player, in the order of the turn input: units by id, buildings by type then x then y
+    private List<List<Unit>> playerUnits = new ArrayList<>();
+    private List<List<Building>> playerBuildings = new ArrayList<>();
+    private int[] mineCounts = new int[PLAYER_COUNT];
+
+    // turn input, reused every turn
+    private StringBuilder input = new StringBuilder();
 
     private ArrayList<AtomicInteger> playerGolds = new ArrayList<>();
     private ArrayList<AtomicInteger> playerIncome = new ArrayList<>();
 
     private Pathfinding pathfinding;
+    // static analytics of the generated map, null before generateMap
+    private MapAnalysis mapAnalysis;
+    // per player, built on demand by getTerritoryTree
+    private TerritoryTree[] territoryTrees = new TerritoryTree[PLAYER_COUNT];
+
+    // incremental Zobrist hash of the position, see computeHash
+    private long hash;
+    private int sideToMove = -1;
+
+    // players whose active cells must be recomputed from their HQ
+    private boolean[] activeDirty = new boolean[PLAYER_COUNT];
+
+    // scratch masks for computeActiveCells
+    private long[] hqMask;
+    private long[] regionMask;
+    private long[] connectedMask;
+
+    // map generator scratch
+    private int[] automatonVoids;
+    private int[] automatonSums;
+    private int[] componentLabels;
+    private int[] componentCells;
+    private int[] componentStarts;
+    private int[] componentStack;
+    private int[] componentStackDirections;
+
+    // getLegalActions scratch
+    private long[] playableCells;
+    private int[] reachableCells;
 
     public GameState(long seed, LEAGUE league) {
+        this(seed, new GameContext(league));
+    }
+
+    public GameState(long seed, LEAGUE league, int width, int height) {
+        this(seed, new GameContext(league, width, height));
+    }
+
+    public GameState(long seed, GameContext context) {
+        LEAGUE league = context.getLeague();
+
         // create full map
-        this.map = new Cell[MAP_WIDTH][MAP_HEIGHT];
-        for(int x = 0; x < MAP_WIDTH; ++x)
-            for (int y = 0; y < MAP_HEIGHT; ++y)
-                this.map[x][y] = new Cell(x, y);
+        this.context = context;
+        this.width = context.getWidth();
+        this.height = context.getHeight();
+        this.board = new Board(this.width, this.height, context.getMaxLevel());
+        this.map = new Cell[this.width][this.height];
+        for(int x = 0; x < this.width; ++x)
+            for (int y = 0; y < this.height; ++y)
+                this.map[x][y] = new Cell(x, y, this.context, this.board);
+        this.hqMask = this.board.newMask();
+        this.regionMask = this.board.newMask();
+        this.connectedMask = this.board.newMask();
+        this.automatonVoids = new int[this.width * this.height];
+        this.automatonSums = new int[(this.width + 1) * (this.height + 1)];
+        this.componentLabels = new int[this.width * this.height];
+        this.componentCells = new int[this.width * this.height];
+        this.componentStarts = new int[this.width * this.height];
+        this.componentStack = new int[this.width * this.height];
+        this.componentStackDirections = new int[this.width * this.height];
+        this.playableCells = this.board.newMask();
+        this.reachableCells = new int[this.width * this.height];
 
         for (int i = 0; i < PLAYER_COUNT; ++i) {
             this.playerGolds.add(new AtomicInteger(2 * UNIT_COST[1]));
             this.playerIncome.add(new AtomicInteger(1 + i));  // Blue player starts with 2 cells
+            this.playerUnits.add(new ArrayList<>());
+            this.playerBuildings.add(new ArrayList<>());
+            this.territoryTrees[i] = new TerritoryTree(this.board, i);
         }
         this.seed = seed;
-        this.pathfinding = new Pathfinding();
+        this.pathfinding = new Pathfinding(this.context);
 
         Random generator = new Random(seed);
         //if even number, fair distribution
@@ -50,8 +121,20 @@ public class GameState {
 
     // getters
     public Cell getCell(int x, int y) { return this.map[x][y]; }
+    public Cell getCell(int idx) { return this.map[board.getX(idx)][board.getY(idx)]; }
+
+    public Board getBoard() { return this.board; }
+    public GameContext getContext() { return this.context; }
+    Pathfinding getPathfinding() { return this.pathfinding; }
+    public MapAnalysis getMapAnalysis() { return this.mapAnalysis; }
+
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public boolean isDefaultSize() { return this.width == MAP_WIDTH && this.height == MAP_HEIGHT; }
 
-    public Unit getUnit(int id) { return this.units.get(id); }
+    public Unit getUnit(int id) { return id >= 0 && id < this.units.length ? this.units[id] : null; }
+    public int getUnitCount() { return this.unitCount; }
+    public int getMineCount(int playerId) { return this.mineCounts[playerId]; }
 
     public int getIncome(int idx) { return playerIncome.get(idx).intValue(); }
     public AtomicInteger getAtomicIncome(int idx) { return playerIncome.get(idx); }
@@ -59,19 +142,21 @@ public class GameState {
     public int getGold(int idx) { return playerGolds.get(idx).intValue(); }
     public AtomicInteger getAtomicGold(int idx) { return playerGolds.get(idx); }
 
+    public long getHash() { return this.hash; }
+
     // map creation methods
-    private Cell getSymmetricCell(int x, int y) { return this.map[MAP_WIDTH - x - 1][MAP_HEIGHT - y - 1]; }
+    private Cell getSymmetricCell(int x, int y) { return this.map[this.width - x - 1][this.height - y - 1]; }
 
     private boolean isWithinBounds(int x, int y) {
-        return x >= 0 && x < MAP_WIDTH && y >= 0 && y < MAP_HEIGHT;
+        return x >= 0 && x < this.width && y >= 0 && y < this.height;
     }
     public boolean isInside(int x, int y) {
         return isWithinBounds(x, y) && this.map[x][y].getOwner() != VOID;
     }
 
     private void computeNeighbours() {
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
+        for (int x = 0; x < this.width; ++x) {
+            for (int y = 0; y < this.height; ++y) {
                 if (isInside(x, y-1))
                     map[x][y].setNeighbour(UP, map[x][y-1]);
                 if (isInside(x+1, y))
@@ -90,167 +175,211 @@ public class GameState {
 
     public int getNbMineSpots() { return this.nbMineSpots; }
 
-    /*********************************
-
-     MAP GENERATOR STARTS HERE
-
-     /*******************************/
-
-    // returns the cell (x,y) considering border cases : out of bounds = NEUTRAL
-    public int getValue(int x, int y) {
-        if (x < 0 || x >= MAP_WIDTH || y < 0 || y >= MAP_HEIGHT)
-            return NEUTRAL;
-        else
-            return this.map[x][y].getOwner();
-    }
-
-    //returns the neighbourhood (list of values) of a cell located in (x,y)
-    //we only care about how much NEUTRAL and how much VOID tiles
-    public List<Integer> getNeighbourhood(int x, int y) {
-        List<Integer> neighbourhood = new ArrayList<>();
-
-        for (int ix = -1; ix < 2; ++ix) {
-            for (int iy = -1; iy < 2; ++iy) {
-                neighbourhood.add(getValue(x+ix,y+iy));
-            }
-        }
-        return neighbourhood;
-    }
-
-
-    // Cellular automata
-    public void updateMap() {
-        // copy current map
-        Cell [][] currentMap = new Cell[MAP_WIDTH][MAP_HEIGHT];
-
-        for(int x = 0; x < MAP_WIDTH; x++) {
-            for(int y=0; y< MAP_HEIGHT; y++) {
-                currentMap[x][y] = new Cell(x, y);
-                currentMap[x][y].setOwner(this.map[x][y].getOwner());
+    // room needed by getLegalActions, shared with ForwardModel
+    public int getMaxActionCount() { return this.context.getMaxActionCount(); }
+
+    // legal actions of playerId, packed as ForwardModel actions, MOVE once per destination; returns the count
+    // out needs getMaxActionCount() entries
+    public int getLegalActions(int playerId, long[] out) {
+        LEAGUE league = this.context.getLeague();
+        int gold = this.getGold(playerId);
+        int maxLevel = league == LEAGUE.WOOD3 ? 1 : this.context.getMaxLevel();
+        boolean canBuild = league != LEAGUE.WOOD3 && league != LEAGUE.WOOD2;
+        int mineCost = getBuildingCost(BUILDING_TYPE.MINE, playerId);
+        int towerCost = getBuildingCost(BUILDING_TYPE.TOWER, playerId);
+
+        // only the playable frontier, in cell order
+        long[] playable = this.playableCells;
+        this.board.getPlayable(playerId, playable);
+        int count = 0;
+        for (int idx = Board.next(playable, 0); idx >= 0; idx = Board.next(playable, idx + 1)) {
+            Cell cell = this.getCell(idx);
+            for (int level = 1; level <= maxLevel && gold >= UNIT_COST[level]; ++level) {
+                if (cell.isCapturable(playerId, level))
+                    out[count++] = ForwardModel.train(level, idx);
             }
-        }
-
-
-
-        // Then we apply the automata to the copied map 'currentMap'
-        // before copying back to this.map
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
-                List<Integer> neighbourhood = getNeighbourhood(x,y);
-
-                if(Collections.frequency(neighbourhood, NEUTRAL) >= MAPGENERATOR_T)
-                    currentMap[x][y].setOwner(NEUTRAL);
-                else
-                    currentMap[x][y].setOwner(VOID);
+            if (canBuild && cell.getOwner() == playerId && cell.isFree()) {
+                if (cell.isMineSpot() && gold >= mineCost)
+                    out[count++] = ForwardModel.build(BUILDING_TYPE.MINE, idx);
+                else if (!cell.isMineSpot() && gold >= towerCost)
+                    out[count++] = ForwardModel.build(BUILDING_TYPE.TOWER, idx);
             }
         }
 
-        for(int x = 0; x < MAP_WIDTH; x++) {
-            for(int y=0; y< MAP_HEIGHT; y++) {
-                this.map[x][y].setOwner(currentMap[x][y].getOwner());
+        // a MOVE toward a capturable cell in reach lands on it
+        for (Unit unit : this.playerUnits.get(playerId)) {
+            if (!unit.canPlay())
+                continue;
+            int fromIdx = unit.getCell().getIndex();
+            int reachable = this.pathfinding.getReachableCells(this.map, unit, this.reachableCells);
+            for (int i = 0; i < reachable; ++i) {
+                if (this.getCell(this.reachableCells[i]).isCapturable(playerId, unit.getLevel()))
+                    out[count++] = ForwardModel.move(fromIdx, this.reachableCells[i]);
             }
         }
+        return count;
     }
 
-    // we define here functions used in FindConnectedComponents()
-    public boolean not_visited(int x, int y, Cell [][] visited) {
-        //if coordinate is invalid, we don't want to visit it
-        if (!isInside(x, y))
-            return false;
-
-        return visited[x][y].getOwner() == NEUTRAL;
-    }
-
-    public void dfs(int x, int y, List<Vector2> currentConnectedComponent, Cell [][] visited) {
-        Vector2 currentPair = new Vector2(x,y);
-        currentConnectedComponent.add(currentPair);
-
-        visited[x][y].setOwner(2);
+    /*********************************
 
-        if (not_visited(x-1, y, visited))
-            dfs(x-1, y, currentConnectedComponent, visited);
-        if (not_visited(x+1, y, visited))
-            dfs(x+1, y, currentConnectedComponent, visited);
-        if (not_visited(x, y-1, visited))
-            dfs(x, y-1, currentConnectedComponent, visited);
-        if (not_visited(x, y+1, visited))
-            dfs(x, y+1, currentConnectedComponent, visited);
-    }
+     MAP GENERATOR STARTS HERE
 
-    public List<List<Vector2>> findConnectedComponents() {
-        // A connected component is a list of coordinates
-        // And we store them in a list
-        List<List<Vector2>> connectedComponents = new ArrayList<>();
+     /*******************************/
 
-        // We find the connected components with a depth first search
-        // We copy the current map in a 'visited' variable
-        // "seen" tiles will be marked as owner = 2, to differentiate between VOID and NEUTRAL
-        Cell [][] visited = new Cell[MAP_WIDTH][MAP_HEIGHT];
+    // Cellular automata
+    public void updateMap() {
+        runAutomaton(1);
+    }
+
+    // Each iteration, a cell becomes NEUTRAL if its 3x3 neighbourhood (itself included,
+    // out of bounds = NEUTRAL) holds at least MAPGENERATOR_T NEUTRAL cells, VOID otherwise.
+    // Runs on primitive arrays: VOID flags and their summed-area table.
+    private void runAutomaton(int iterations) {
+        int[] voids = this.automatonVoids;
+        int[] sums = this.automatonSums;
+        int stride = this.width + 1;
+
+        for (int y = 0; y < this.height; ++y)
+            for (int x = 0; x < this.width; ++x)
+                voids[x + this.width * y] = this.map[x][y].getOwner() == VOID ? 1 : 0;
+
+        for (int i = 0; i < iterations; ++i) {
+            // sums[(x + 1) + stride * (y + 1)] = VOID cells in [0, x] x [0, y]
+            for (int y = 0; y < this.height; ++y) {
+                int rowSum = 0;
+                for (int x = 0; x < this.width; ++x) {
+                    rowSum += voids[x + this.width * y];
+                    sums[(x + 1) + stride * (y + 1)] = sums[(x + 1) + stride * y] + rowSum;
+                }
+            }
 
-        for(int x = 0; x < MAP_WIDTH; x++) {
-            for(int y=0; y< MAP_HEIGHT; y++) {
-                visited[x][y] = new Cell(x, y);
-                visited[x][y].setOwner(this.map[x][y].getOwner());
+            for (int y = 0; y < this.height; ++y) {
+                int y0 = Math.max(y - 1, 0);
+                int y1 = Math.min(y + 1, this.height - 1) + 1;
+                for (int x = 0; x < this.width; ++x) {
+                    int x0 = Math.max(x - 1, 0);
+                    int x1 = Math.min(x + 1, this.width - 1) + 1;
+                    int nbVoids = sums[x1 + stride * y1] - sums[x0 + stride * y1] - sums[x1 + stride * y0] + sums[x0 + stride * y0];
+                    voids[x + this.width * y] = 9 - nbVoids >= MAPGENERATOR_T ? 0 : 1;
+                }
             }
         }
 
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
-                if (visited[x][y].getOwner() == NEUTRAL)
-                {
-                    List<Vector2> currentConnectedComponent = new ArrayList<>();
-                    dfs(x, y, currentConnectedComponent, visited);
-                    connectedComponents.add(currentConnectedComponent);
+        for (int y = 0; y < this.height; ++y)
+            for (int x = 0; x < this.width; ++x)
+                this.map[x][y].setOwner(voids[x + this.width * y] == 1 ? VOID : NEUTRAL);
+    }
+
+    // NEUTRAL cell reachable from (x, y) in direction, -1 if out of the map, VOID or already labeled
+    private int getUnlabeledNeighbour(int x, int y, int direction) {
+        switch (direction) {
+            case 0: x -= 1; break;
+            case 1: x += 1; break;
+            case 2: y -= 1; break;
+            default: y += 1;
+        }
+        if (!isWithinBounds(x, y) || this.map[x][y].getOwner() != NEUTRAL)
+            return -1;
+        int idx = x + this.width * y;
+        return this.componentLabels[idx] < 0 ? idx : -1;
+    }
+
+    // Connected components of NEUTRAL cells, as arrays of cell indices (x + width * y).
+    // Components come in x-major scan order of their first cell, and cells in depth first
+    // preorder exploring x-1, x+1, y-1, y+1: linkComponents draws random cells by position.
+    // The search is iterative with an explicit stack so large maps do not overflow.
+    public int[][] findConnectedComponents() {
+        int[] labels = this.componentLabels;
+        int[] cells = this.componentCells;
+        int[] stack = this.componentStack;
+        int[] stackDirections = this.componentStackDirections;
+        Arrays.fill(labels, -1);
+
+        int nbComponents = 0;
+        int nbCells = 0;
+        int[] starts = this.componentStarts;
+        for (int x = 0; x < this.width; ++x) {
+            for (int y = 0; y < this.height; ++y) {
+                int start = x + this.width * y;
+                if (this.map[x][y].getOwner() != NEUTRAL || labels[start] >= 0)
+                    continue;
+
+                starts[nbComponents] = nbCells;
+                labels[start] = nbComponents;
+                cells[nbCells++] = start;
+
+                int top = 0;
+                stack[0] = start;
+                stackDirections[0] = 0;
+                while (top >= 0) {
+                    int cellId = stack[top];
+                    if (stackDirections[top] == 4) {
+                        --top;
+                        continue;
+                    }
+                    int neighbourId = getUnlabeledNeighbour(cellId % this.width, cellId / this.width, stackDirections[top]++);
+                    if (neighbourId >= 0) {
+                        labels[neighbourId] = nbComponents;
+                        cells[nbCells++] = neighbourId;
+                        stack[++top] = neighbourId;
+                        stackDirections[top] = 0;
+                    }
                 }
+                ++nbComponents;
             }
         }
 
-
+        int[][] connectedComponents = new int[nbComponents][];
+        for (int n = 0; n < nbComponents; ++n) {
+            int end = n + 1 < nbComponents ? starts[n + 1] : nbCells;
+            connectedComponents[n] = Arrays.copyOfRange(cells, starts[n], end);
+        }
         return connectedComponents;
-
     }
 
 
     private void linkComponents(Random generator) {
-        List<List<Vector2>> connectedComponents = findConnectedComponents();
+        int[][] connectedComponents = findConnectedComponents();
 
-        if (connectedComponents.size() == 1) {
+        if (connectedComponents.length == 1) {
             return;
         }
 
-        // System.err.println("We have " + connectedComponents.size() + " components");
+        // System.err.println("We have " + connectedComponents.length + " components");
 
         // we find the barycenter of each connected components
-        List<Vector2> randomPoints = new ArrayList<>();
+        int[] randomPoints = new int[connectedComponents.length];
 
-        for (int n = 0; n < connectedComponents.size(); n++) {
+        for (int n = 0; n < connectedComponents.length; n++) {
             // get random element from component
-            int componentSize = connectedComponents.get(n).size();
-            randomPoints.add(connectedComponents.get(n).get(generator.nextInt(componentSize)));
+            int componentSize = connectedComponents[n].length;
+            randomPoints[n] = connectedComponents[n][generator.nextInt(componentSize)];
         }
 
         // To connect, we take a random pair of selected points and link them (with symmetry)
-        for (int i = 0; i < randomPoints.size(); ++i) {
-            for (int j = i+1; j < randomPoints.size(); ++j) {
-                Vector2 node1 = randomPoints.get(i);
-                Vector2 node2 = randomPoints.get(j);
+        for (int i = 0; i < randomPoints.length; ++i) {
+            for (int j = i+1; j < randomPoints.length; ++j) {
+                int node1X = randomPoints[i] % this.width;
+                int node1Y = randomPoints[i] / this.width;
+                int node2X = randomPoints[j] % this.width;
+                int node2Y = randomPoints[j] / this.width;
 
                 // Link on X axis first then Y axis
-                int startX = Math.min(node1.getX(), node2.getX());
-                int endX = Math.max(node1.getX(), node2.getX());
+                int startX = Math.min(node1X, node2X);
+                int endX = Math.max(node1X, node2X);
 
-                int startY = Math.min(node1.getY(), node2.getY());
-                int endY = Math.max(node1.getY(), node2.getY());
+                int startY = Math.min(node1Y, node2Y);
+                int endY = Math.max(node1Y, node2Y);
 
 
                 for (int x = startX; x <= endX; ++x) {
-                    this.map[x][node2.getY()].setOwner(NEUTRAL);
-                    this.getSymmetricCell(x, node2.getY()).setOwner(NEUTRAL);
+                    this.map[x][node2Y].setOwner(NEUTRAL);
+                    this.getSymmetricCell(x, node2Y).setOwner(NEUTRAL);
                 }
 
                 for (int y = startY; y <= endY; ++y) {
-                    this.map[node1.getX()][y].setOwner(NEUTRAL);
-                    this.getSymmetricCell(node1.getX(), y).setOwner(NEUTRAL);
+                    this.map[node1X][y].setOwner(NEUTRAL);
+                    this.getSymmetricCell(node1X, y).setOwner(NEUTRAL);
                 }
             }
         }
@@ -261,10 +390,57 @@ public class GameState {
 
 
     public void generateMap(LEAGUE league) {
+        if (!loadMap(league))
+            generateLayout(league);
+
+        // init pathfinding
+        this.pathfinding.init(this.map);
+
+        // voids never change: analyse the layout once, HQs stand in opposite corners (see createHQs)
+        int[] hqs = { this.board.getIndex(0, 0), this.board.getIndex(this.width - 1, this.height - 1) };
+        this.mapAnalysis = new MapAnalysis(this.width, this.height, this.pathfinding.getAdjacency(), this.board.getVoids(), hqs);
+    }
+
+    // cells, mine spots and neighbours from the configured map pack, false if not packed
+    private boolean loadMap(LEAGUE league) {
+        MapPack pack = MapPack.getConfigured();
+        if (pack == null || pack.getWidth() != this.width || pack.getHeight() != this.height)
+            return false;
+        int record = pack.find(this.seed);
+        if (record < 0)
+            return false;
+
+        boolean withMineSpots = league == LEAGUE.WOOD1 || league == LEAGUE.BRONZE;
+        for (int idx = 0; idx < this.width * this.height; ++idx) {
+            int value = pack.getCell(record, idx);
+            Cell cell = this.getCell(idx);
+            cell.setOwner((value & MapPack.VOID_BIT) != 0 ? VOID : NEUTRAL);
+            if (withMineSpots && (value & MapPack.MINE_SPOT_BIT) != 0)
+                cell.setMineSpot();
+        }
+        for (int idx = 0; idx < this.width * this.height; ++idx) {
+            int value = pack.getCell(record, idx);
+            Cell cell = this.getCell(idx);
+            int x = cell.getX();
+            int y = cell.getY();
+            if ((value & (1 << UP)) != 0)
+                cell.setNeighbour(UP, map[x][y-1]);
+            if ((value & (1 << RIGHT)) != 0)
+                cell.setNeighbour(RIGHT, map[x+1][y]);
+            if ((value & (1 << DOWN)) != 0)
+                cell.setNeighbour(DOWN, map[x][y+1]);
+            if ((value & (1 << LEFT)) != 0)
+                cell.setNeighbour(LEFT, map[x-1][y]);
+        }
+        return true;
+    }
+
+    // random generation of cells, mine spots and neighbours
+    void generateLayout(LEAGUE league) {
         Random generator = new Random(this.seed);
 
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
+        for (int x = 0; x < this.width; ++x) {
+            for (int y = 0; y < this.height; ++y) {
                 if (generator.nextFloat() > MAPGENERATOR_R)
                     this.map[x][y].setOwner(NEUTRAL);
                 else
@@ -284,14 +460,12 @@ public class GameState {
         }
 
         //apply automata
-        for (int i=0; i < MAPGENERATOR_ITERATIONSAUTOMATA; ++i) {
-            updateMap();
-        }
+        runAutomaton(MAPGENERATOR_ITERATIONSAUTOMATA);
 
 
         // invert VOID and TILE as the cellular automata generates more caves like maps
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
+        for (int x = 0; x < this.width; ++x) {
+            for (int y = 0; y < this.height; ++y) {
                 // + 2 to be 0 or 1
                 // +1 then %2 to invert 0 and 1
                 // -2 to get back to -2 or -1
@@ -302,9 +476,17 @@ public class GameState {
 
 
         // Now, the map is generated, we then have to correct the symmetry.
-        for (int x = 0; x < MAP_WIDTH; x++) {
-            for (int y = 0; y < x+1; y++) {
-                this.map[MAP_WIDTH-1-x][MAP_HEIGHT-1-y].setOwner(this.map[x][y].getOwner());
+        if (this.width == this.height) {
+            for (int x = 0; x < this.width; x++) {
+                for (int y = 0; y < x+1; y++) {
+                    this.map[this.width-1-x][this.height-1-y].setOwner(this.map[x][y].getOwner());
+                }
+            }
+        } else {
+            // no diagonal on rectangular maps: the first half of the cells is mirrored
+            for (int idx = 0; idx < (this.width * this.height) / 2; ++idx) {
+                Cell cell = this.getCell(idx);
+                this.getSymmetricCell(cell.getX(), cell.getY()).setOwner(cell.getOwner());
             }
         }
 
@@ -325,14 +507,14 @@ public class GameState {
             for (int i = 0; i < Math.round(this.nbMineSpots / 2) - 1; i++) {
 
 
-                int randomX = generator.nextInt(MAP_WIDTH);
-                int randomY = generator.nextInt(MAP_HEIGHT);
+                int randomX = generator.nextInt(this.width);
+                int randomY = generator.nextInt(this.height);
 
                 while (this.map[randomX][randomY].getOwner() == VOID || this.map[randomX][randomY].isMineSpot() || randomX + randomY == 0 ||
-                        randomX + randomY == MAP_WIDTH + MAP_HEIGHT - 2 || randomX == 0 && randomY == 1 || randomX == MAP_WIDTH-1 && randomY == MAP_HEIGHT-2) {
+                        randomX + randomY == this.width + this.height - 2 || randomX == 0 && randomY == 1 || randomX == this.width-1 && randomY == this.height-2) {
                     // we have to remove (0, 1) and (11, 10) from the generation since blue player now owns (11, 10) at the beginning of the game
-                    randomX = generator.nextInt(MAP_WIDTH);
-                    randomY = generator.nextInt(MAP_HEIGHT);
+                    randomX = generator.nextInt(this.width);
+                    randomY = generator.nextInt(this.height);
                 }
 
                 this.map[randomX][randomY].setMineSpot();
@@ -342,9 +524,6 @@ public class GameState {
 
         // Restore HQs cells
         this.computeNeighbours();
-
-        // init pathfinding
-        this.pathfinding.init(this.map);
     }
 
     /*********************************
@@ -360,26 +539,37 @@ public class GameState {
 
         // Build players HQs
         Building HQ0 = new Building(this.map[0][0], 0, BUILDING_TYPE.HQ);
-        Building HQ1 = new Building(this.map[MAP_WIDTH-1][MAP_HEIGHT-1], 1, BUILDING_TYPE.HQ);
+        Building HQ1 = new Building(this.map[this.width-1][this.height-1], 1, BUILDING_TYPE.HQ);
         this.HQs.add(HQ0);
         this.HQs.add(HQ1);
         HQ0.getCell().setOwner(0);
         HQ1.getCell().setOwner(1);
 
-        this.map[MAP_WIDTH - 1][MAP_HEIGHT-2].setOwner(1);
+        this.map[this.width - 1][this.height-2].setOwner(1);
         this.addBuilding(HQ0);
         this.addBuilding(HQ1);
+        this.hash = computeHash();
     }
 
 
     public List<Building> getHQs() { return this.HQs; }
 
+    // dominator tree of playerId's active cells, for "what does losing this cell cut off" queries
+    public TerritoryTree getTerritoryTree(int playerId) {
+        TerritoryTree tree = this.territoryTrees[playerId];
+        tree.update(this.HQs.get(playerId).getCell().getIndex());
+        return tree;
+    }
+
 
     // kill methods
     private void killUnit(Unit unit) {
+        this.hash ^= Zobrist.unit(unit.getCell().getIndex(), unit.getOwner(), unit.getLevel());
         unit.die();
         unit.doDispose();
-        this.units.remove(unit.getId());
+        this.units[unit.getId()] = null;
+        --this.unitCount;
+        this.playerUnits.get(unit.getOwner()).remove(unit);
     }
 
     private void clearCell(Cell cell) {
@@ -389,8 +579,11 @@ public class GameState {
         }
         if (cell.getBuilding() != null && cell.getBuilding().getType() != BUILDING_TYPE.HQ) {
             Building building = cell.getBuilding();
+            this.hash ^= Zobrist.building(cell.getIndex(), building.getOwner(), building.getType());
             building.doDispose();
-            this.buildings.removeIf(building1 -> building1.getX() == building.getX() && building1.getY() == building.getY());
+            this.playerBuildings.get(building.getOwner()).remove(building);
+            if (building.getType() == BUILDING_TYPE.MINE)
+                --this.mineCounts[building.getOwner()];
             cell.setBuilding(null);
         }
     }
@@ -401,7 +594,9 @@ public class GameState {
 
     // init turn methods
     public void initTurn(int playerId) {
-        this.computeActiveCells(playerId);
+        this.hash ^= Zobrist.side(this.sideToMove) ^ Zobrist.side(playerId);
+        this.sideToMove = playerId;
+        this.updateActiveCells();
         this.killSeparatedUnits(playerId);
         for (int i = 0; i < PLAYER_COUNT; ++i)
             this.computeIncome(i);
@@ -409,45 +604,116 @@ public class GameState {
         if (this.playerGolds.get(playerId).intValue() < 0) {
             negativeGoldWipeout(playerId);
         }
-        this.units.forEach( (key, unit) -> { if (unit.getOwner() == playerId) unit.newTurn(); });
+        for (Unit unit : this.playerUnits.get(playerId))
+            unit.newTurn();
     }
 
-    public void computeAllActiveCells() {
-        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId)
-            this.computeActiveCells(playerId);
+    // recompute only the players who may have lost connected cells
+    private void updateActiveCells() {
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            if (this.activeDirty[playerId]) {
+                this.computeActiveCells(playerId);
+                this.activeDirty[playerId] = false;
+            }
+        }
     }
 
-    private void computeActiveCells(int playerId) {
-        // Set all inactive
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
-                if (this.map[x][y].getOwner() == playerId)
-                    this.map[x][y].setInactive();
-            }
+    // ownership change by TRAIN or MOVE, active cells are kept up to date incrementally
+    private void captureCell(Cell cell, int playerId) {
+        int previousOwner = cell.getOwner();
+        if (previousOwner == playerId)
+            return;
+
+        boolean wasActive = cell.isActive();
+        cell.setOwner(playerId);
+        this.hash ^= Zobrist.owner(cell.getIndex(), previousOwner) ^ Zobrist.owner(cell.getIndex(), playerId);
+
+        // losing an inactive cell changes nothing, losing a leaf cannot cut anything off
+        if (previousOwner >= 0 && wasActive && (countActiveNeighbours(cell, previousOwner) > 1 || isHQCell(cell)))
+            this.activeDirty[previousOwner] = true;
+
+        if (countActiveNeighbours(cell, playerId) == 0 || isHQCell(cell)) {
+            // not next to the connected territory: let the full recompute decide
+            this.activeDirty[playerId] = true;
+            return;
         }
 
-        ArrayList<Cell> queue = new ArrayList<>();
-        Cell start = this.HQs.get(playerId).getCell();
-        queue.add(start);
-        start.setActive();
+        cell.setActive();
 
-        // Reactivate cells connected to starting point
-        while (!queue.isEmpty()) {
-            Cell currentCell = queue.get(0);
-            queue.remove(0);
-            for (Cell cell : currentCell.getNeighbours()) {
-                if (cell != null && !cell.isActive() && cell.getOwner() == playerId) {
-                    cell.setActive();
-                    queue.add(cell);
-                }
+        // the new cell may reconnect inactive cells
+        for (Cell neighbour : cell.getNeighbours()) {
+            if (neighbour != null && neighbour.getOwner() == playerId && !neighbour.isActive()) {
+                reconnectCells(cell, playerId);
+                break;
             }
         }
     }
 
+    private int countActiveNeighbours(Cell cell, int playerId) {
+        int count = 0;
+        for (Cell neighbour : cell.getNeighbours()) {
+            if (neighbour != null && neighbour.getOwner() == playerId && neighbour.isActive())
+                ++count;
+        }
+        return count;
+    }
+
+    private boolean isHQCell(Cell cell) {
+        for (Building HQ : this.HQs) {
+            if (HQ.getCell() == cell)
+                return true;
+        }
+        return false;
+    }
+
+    private void reconnectCells(Cell start, int playerId) {
+        // flood from start through inactive owned cells
+        long[] seed = this.hqMask;
+        long[] region = this.regionMask;
+        long[] connected = this.connectedMask;
+        long[] owned = board.getOwned(playerId);
+        long[] active = board.getActive();
+        Arrays.fill(seed, 0);
+        Board.set(seed, start.getIndex());
+        for (int w = 0; w < board.getWords(); ++w)
+            region[w] = (owned[w] & ~active[w]) | seed[w];
+        board.flood(seed, region, connected);
+
+        for (int idx = Board.next(connected, 0); idx >= 0; idx = Board.next(connected, idx + 1)) {
+            if (idx != start.getIndex())
+                this.getCell(idx).setActive();
+        }
+    }
+
+    private void computeActiveCells(int playerId) {
+        // flood from the HQ through owned cells, the HQ cell being reactivated even if lost
+        long[] hq = this.hqMask;
+        long[] region = this.regionMask;
+        long[] connected = this.connectedMask;
+        Arrays.fill(hq, 0);
+        Board.set(hq, this.HQs.get(playerId).getCell().getIndex());
+        Board.or(board.getOwned(playerId), hq, region);
+        board.flood(hq, region, connected);
+
+        // only touch cells whose activity changed
+        long[] active = board.getActive();
+        for (int w = 0; w < board.getWords(); ++w)
+            region[w] &= active[w] ^ connected[w];
+        for (int idx = Board.next(region, 0); idx >= 0; idx = Board.next(region, idx + 1)) {
+            if (Board.get(connected, idx))
+                this.getCell(idx).setActive();
+            else
+                this.getCell(idx).setInactive();
+        }
+    }
+
 
     private void killSeparatedUnits(int playerId) {
         List<Unit> toKill = new ArrayList<>();
-        this.units.forEach((key, unit)-> {if (unit.isAlive() && unit.getOwner() == playerId && !unit.getCell().isActive()) toKill.add(unit); });
+        for (Unit unit : this.playerUnits.get(playerId)) {
+            if (unit.isAlive() && !unit.getCell().isActive())
+                toKill.add(unit);
+        }
         killUnits(toKill);
     }
 
@@ -457,54 +723,31 @@ public class GameState {
         if (type == BUILDING_TYPE.TOWER) {
             return cost;
         } else { // == MINE
-            for (Building building : this.buildings) {
-                if (building.getType() == BUILDING_TYPE.MINE && building.getOwner() == playerId) {
-                    cost += MINE_INCREMENT;
-                }
-            }
-            return cost;
+            return cost + this.mineCounts[playerId] * MINE_INCREMENT;
         }
     }
 
     public void computeIncome(int playerId) {
-        int updatedIncome = 0;
-
-        // increments golds of player
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
-                if (map[x][y].getOwner() == playerId && map[x][y].isActive())
-                    updatedIncome += CELL_INCOME;
-            }
-        }
-
-        // increments golds for active mines
-        for (Building building : this.buildings) {
-            if (building.getOwner() == playerId && building.getType() == BUILDING_TYPE.MINE && building.getCell().isActive())
-                updatedIncome += MINE_INCOME;
-        }
-
-        // decrement for units
-        for (Unit unit : this.units.values()) {
-            if (unit.getOwner() == playerId && unit.isAlive() && unit.getCell().isActive())
-                updatedIncome -= UNIT_UPKEEP[unit.getLevel()];
-        }
-
-        //update player income
-        this.playerIncome.get(playerId).set(updatedIncome);
+        // the board keeps income up to date on every cell, unit and building change
+        this.playerIncome.get(playerId).set(board.getIncome(playerId));
     }
 
     private void computeGold(int playerId) {
         // add player income to their gold (can be negative).
-        this.playerGolds.get(playerId).addAndGet(this.playerIncome.get(playerId).intValue());
+        this.addGold(playerId, this.playerIncome.get(playerId).intValue());
+    }
+
+    private void addGold(int playerId, int amount) {
+        AtomicInteger gold = this.playerGolds.get(playerId);
+        this.hash ^= Zobrist.gold(playerId, gold.intValue()) ^ Zobrist.gold(playerId, gold.intValue() + amount);
+        gold.addAndGet(amount);
     }
 
     private void negativeGoldWipeout(int playerId) {
         // Negative amount of gold: kill all units and reset to 0
-        this.playerGolds.get(playerId).set(0);
+        this.addGold(playerId, -this.playerGolds.get(playerId).intValue());
 
-        List<Unit> toKill = new ArrayList<>();
-        this.units.forEach((key, unit)-> {if (unit.isAlive() && unit.getOwner() == playerId) toKill.add(unit); });
-        killUnits(toKill);
+        killUnits(new ArrayList<>(this.playerUnits.get(playerId)));
     }
 
     // action methods
@@ -513,10 +756,17 @@ public class GameState {
         // kill previous unit
         clearCell(unit.getCell());
 
-        this.units.put(unit.getId(), unit);
-        unit.getCell().setOwner(unit.getOwner());
+        if (unit.getId() >= this.units.length)
+            this.units = Arrays.copyOf(this.units, Math.max(2 * this.units.length, unit.getId() + 1));
+        this.units[unit.getId()] = unit;
+        ++this.unitCount;
+        // ids only grow: the list stays sorted
+        this.playerUnits.get(unit.getOwner()).add(unit);
+        captureCell(unit.getCell(), unit.getOwner());
+        this.updateActiveCells();
         unit.getCell().setUnit(unit);
-        this.playerGolds.get(unit.getOwner()).addAndGet(-UNIT_COST[unit.getLevel()]);
+        this.hash ^= Zobrist.unit(unit.getCell().getIndex(), unit.getOwner(), unit.getLevel());
+        this.addGold(unit.getOwner(), -UNIT_COST[unit.getLevel()]);
         for (int i = 0; i < PLAYER_COUNT; ++i)
             this.computeIncome(i);
     }
@@ -527,183 +777,143 @@ public class GameState {
         clearCell(newPosition);
 
         unit.getCell().setUnit(null);
+        this.hash ^= Zobrist.unit(unit.getCell().getIndex(), unit.getOwner(), unit.getLevel());
         unit.moved();
         unit.setX(newPosition.getX());
         unit.setY(newPosition.getY());
         unit.setCell(newPosition);
 
-        newPosition.setOwner(unit.getOwner());
+        captureCell(newPosition, unit.getOwner());
+        this.updateActiveCells();
         // occupy new cell
         newPosition.setUnit(unit);
+        this.hash ^= Zobrist.unit(newPosition.getIndex(), unit.getOwner(), unit.getLevel());
 
         for (int i = 0; i < PLAYER_COUNT; ++i)
             this.computeIncome(i);
     }
 
+    private void insertBuilding(Building building) {
+        // keep the order of the turn input: type, then x, then y
+        List<Building> buildings = this.playerBuildings.get(building.getOwner());
+        int idx = buildings.size();
+        while (idx > 0 && compareBuildings(buildings.get(idx - 1), building) > 0)
+            --idx;
+        buildings.add(idx, building);
+    }
+
+    static private int compareBuildings(Building building1, Building building2) {
+        if (building1.getIntType() != building2.getIntType())
+            return building1.getIntType() - building2.getIntType();
+        if (building1.getX() != building2.getX())
+            return building1.getX() - building2.getX();
+        return building1.getY() - building2.getY();
+    }
+
     public void addBuilding(Building building) {
-        this.buildings.add(building);
+        insertBuilding(building);
+        if (building.getType() == BUILDING_TYPE.MINE)
+            ++this.mineCounts[building.getOwner()];
         building.getCell().setBuilding(building);
+        this.hash ^= Zobrist.building(building.getCell().getIndex(), building.getOwner(), building.getType());
         int cost = getBuildingCost(building.getType(), building.getOwner());
 
         // since the mine was already created, getBuildingCost returns MINE_INCREMENT too many
         if (building.getType() == BUILDING_TYPE.MINE) {
             cost -= MINE_INCREMENT;
         }
-        this.playerGolds.get(building.getOwner()).addAndGet(-cost);
+        this.addGold(building.getOwner(), -cost);
+        for (int i = 0; i < PLAYER_COUNT; ++i)
+            this.computeIncome(i);
     }
 
 
     // referee methods
-    private void sendMap(Player player) {
-        for (int y = 0; y < MAP_HEIGHT; ++y) {
-            StringBuilder line = new StringBuilder();
-            for (int x = 0; x < MAP_WIDTH; ++x) {
-                int owner = this.map[x][y].getOwner();
-                char data;
-                switch (owner) {
-                    case VOID:
-                        data = '#';
-                        break;
-                    case NEUTRAL:
-                        data = '.';
-                        break;
-                    default:
-                        // o for own player, x for opponent
-                        if (owner == player.getIndex()) {
-                            data = 'o';
-                        } else {
-                            data = 'x';
-                        }
-                        // capital letter iif active cell
-                        if (this.map[x][y].isActive()) {
-                            data = Character.toUpperCase(data);
-                        }
-                }
-                line.append(data);
-            }
-            player.sendInputLine(line.toString());
-        }
-    }
-
-    private void sendMineSpots(Player player) {
-        for (int y = 0; y < MAP_HEIGHT; ++y) {
-            StringBuilder line = new StringBuilder();
-            for (int x = 0; x < MAP_WIDTH; ++x) {
-                int owner = this.map[x][y].getOwner();
-                char data;
-                switch (owner) {
-                    case VOID:
-                        data = '#';
-                        break;
-                    case NEUTRAL:
-                        data = '.';
-                        break;
-                    default:
-                        // o for own player, x for opponent
-                        if (owner == player.getIndex()) {
-                            data = 'o';
-                        } else {
-                            data = 'x';
-                        }
-                        // capital letter iif active cell
-                        if (this.map[x][y].isActive()) {
-                            data = Character.toUpperCase(data);
-                        }
-                }
-                line.append(data);
+    private void writeMap(int playerId) {
+        // the board patches each player's map lines as cells change
+        this.input.append(this.board.getMapText(playerId));
+    }
+
+    private void writeBuildings(int playerId) {
+        // send building count
+        int count = 0;
+        for (List<Building> buildings : this.playerBuildings)
+            count += buildings.size();
+        this.input.append(count).append('\n');
+
+        // own buildings first
+        for (int i = 0; i < PLAYER_COUNT; ++i) {
+            int owner = (playerId + i) % PLAYER_COUNT;
+            for (Building building : this.playerBuildings.get(owner)) {
+                this.input
+                    .append(i) // always 0 for the player
+                    .append(' ')
+                    .append(building.getIntType())
+                    .append(' ')
+                    .append(building.getX())
+                    .append(' ')
+                    .append(building.getY())
+                    .append('\n');
             }
-            player.sendInputLine(line.toString());
         }
     }
 
-    private void sendUnits(Player player) {
+    private void writeUnits(int playerId) {
         // send unit count
-        player.sendInputLine(String.valueOf(this.units.size()));
-
-        List<Unit> unitList = new ArrayList<>(this.units.values());
-
-        Collections.sort(unitList, new Comparator<Unit>() {
-            @Override
-            public int compare(Unit unit1, Unit unit2) {
-                int currentOwner1 = (unit1.getOwner() - player.getIndex() + PLAYER_COUNT) % PLAYER_COUNT;
-                int currentOwner2 = (unit2.getOwner() - player.getIndex() + PLAYER_COUNT) % PLAYER_COUNT;
-                // not the same owner, building owned by 0 is sent first
-                if (currentOwner1 != currentOwner2) {
-                    return currentOwner1 - currentOwner2; // if o1 = 0, o1-o2 = -1, ie b1 < b2, else o1-o2 = 1, ie b2 < b1
-                }
+        this.input.append(this.unitCount).append('\n');
 
-                return unit1.getId() - unit2.getId();
+        // own units first
+        for (int i = 0; i < PLAYER_COUNT; ++i) {
+            int owner = (playerId + i) % PLAYER_COUNT;
+            for (Unit unit : this.playerUnits.get(owner)) {
+                this.input
+                    .append(i) // always 0 for the player
+                    .append(' ')
+                    .append(unit.getId())
+                    .append(' ')
+                    .append(unit.getLevel())
+                    .append(' ')
+                    .append(unit.getX())
+                    .append(' ')
+                    .append(unit.getY())
+                    .append('\n');
             }
-        });
-
-        // send units
-        unitList.forEach(unit -> {
-            StringBuilder line = new StringBuilder();
-            line
-                .append( (unit.getOwner() - player.getIndex() + PLAYER_COUNT) % PLAYER_COUNT) // always 0 for the player
-                .append(" ")
-                .append(unit.getId())
-                .append(" ")
-                .append(unit.getLevel())
-                .append(" ")
-                .append(unit.getX())
-                .append(" ")
-                .append(unit.getY());
-            player.sendInputLine(line.toString());
-        });
-    }
-
-    private void sendBuildings(Player player) {
-        // send building count
-        player.sendInputLine(String.valueOf(this.buildings.size()));
-        
-        Collections.sort(this.buildings, new Comparator<Building>() {
-            @Override
-            public int compare(Building building1, Building building2) {
-                int currentOwner1 = (building1.getOwner() - player.getIndex() + PLAYER_COUNT) % PLAYER_COUNT;
-                int currentOwner2 = (building2.getOwner() - player.getIndex() + PLAYER_COUNT) % PLAYER_COUNT;
-                // not the same owner, building owned by 0 is sent first
-                if (currentOwner1 != currentOwner2) {
-                    return currentOwner1 - currentOwner2; // if o1 = 0, o1-o2 = -1, ie b1 < b2, else o1-o2 = 1, ie b2 < b1
-                }
+        }
+    }
 
-                // different type
-                if (building1.getIntType() != building2.getIntType()) {
-                    return building1.getIntType() - building2.getIntType();
-                }
+    // whole turn input seen by playerId, one line per input line
+    public String writeState(int playerId) {
+        this.input.setLength(0);
 
-                // last case: order by x then y
-                return (building1.getX() - building2.getX()) * MAP_HEIGHT + (building1.getY() - building2.getY());
-            }
-        });
-
-        this.buildings.forEach(building -> {
-            StringBuilder line = new StringBuilder();
-            line
-                .append( (building.getOwner() - player.getIndex() + PLAYER_COUNT) % PLAYER_COUNT ) // always 0 for the player
-                .append(" ")
-                .append(building.getIntType())
-                .append(" ")
-                .append(building.getX())
-                .append(" ")
-                .append(building.getY());
-            player.sendInputLine(line.toString());
-        });
+        // gold and income for current player, then for opponent player
+        int opponentPlayerIndex = (playerId + 1) % PLAYER_COUNT;
+        this.input.append(this.playerGolds.get(playerId).intValue()).append('\n');
+        this.input.append(this.playerIncome.get(playerId).intValue()).append('\n');
+        this.input.append(this.playerGolds.get(opponentPlayerIndex).intValue()).append('\n');
+        this.input.append(this.playerIncome.get(opponentPlayerIndex).intValue()).append('\n');
+
+        writeMap(playerId);
+        writeBuildings(playerId);
+        writeUnits(playerId);
+
+        // lines are separated, not terminated, by '\n' (see sendLines)
+        this.input.setLength(this.input.length() - 1);
+        return this.input.toString();
     }
 
     public void sendState(Player player) {
-        // send gold and income for current player
-        player.sendInputLine(String.valueOf(this.playerGolds.get(player.getIndex())));
-        player.sendInputLine(String.valueOf(this.playerIncome.get(player.getIndex())));
-
-        // send gold and income for opponent player
-        int opponentPlayerIndex = (player.getIndex() + 1) %PLAYER_COUNT;
-        player.sendInputLine(String.valueOf(this.playerGolds.get(opponentPlayerIndex)));
-        player.sendInputLine(String.valueOf(this.playerIncome.get(opponentPlayerIndex)));
+        sendLines(player, writeState(player.getIndex()));
+    }
 
-        sendMap(player);
-        sendBuildings(player);
-        sendUnits(player);
+    // one sendInputLine per '\n' separated line: the SDK does not document lines holding line breaks
+    static public void sendLines(Player player, String lines) {
+        int start = 0;
+        int end;
+        while ((end = lines.indexOf('\n', start)) >= 0) {
+            player.sendInputLine(lines.substring(start, end));
+            start = end + 1;
+        }
+        player.sendInputLine(lines.substring(start));
     }
 
     public void debugViews() {
@@ -711,11 +921,28 @@ public class GameState {
         // units.forEach((id, unit) -> {System.err.println(unit.getId() + ": " +unit.getX() + " " + unit.getY());});
     }
 
+    // hash of the position from scratch: owners, units, buildings, gold buckets and side to move
+    public long computeHash() {
+        long hash = Zobrist.side(this.sideToMove);
+        for (int idx = 0; idx < this.width * this.height; ++idx) {
+            Cell cell = this.getCell(idx);
+            hash ^= Zobrist.owner(idx, cell.getOwner());
+            if (cell.getUnit() != null)
+                hash ^= Zobrist.unit(idx, cell.getUnit().getOwner(), cell.getUnit().getLevel());
+            if (cell.getBuilding() != null)
+                hash ^= Zobrist.building(idx, cell.getBuilding().getOwner(), cell.getBuilding().getType());
+        }
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId)
+            hash ^= Zobrist.gold(playerId, this.getGold(playerId));
+        return hash;
+    }
+
     public List<AtomicInteger> getScores() {
         List<AtomicInteger> scores = new ArrayList<>(this.playerGolds);
-        this.units.forEach((id, unit) -> {
-            scores.get(unit.getOwner()).addAndGet(UNIT_COST[unit.getLevel()]);
-        });
+        for (List<Unit> units : this.playerUnits) {
+            for (Unit unit : units)
+                scores.get(unit.getOwner()).addAndGet(UNIT_COST[unit.getLevel()]);
+        }
         return scores;
     }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package com.codingame.antiyoy;
+
+import java.util.Arrays;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Static analytics of a generated map, computed once since voids never change:
+// articulation points and biconnected components of the non-void cells, the choke
+// cells every path between the two HQs goes through, and distances to each HQ.
+// Read only once built; masks use the Board layout (cell index = x + width * y).
+public class MapAnalysis {
+    private final int width;
+    private final int height;
+    private final int size;
+    private final int infinity;
+
+    // cells whose removal disconnects other non-void cells
+    private final long[] articulationPoints;
+
+    // biconnected component of each edge, by cell and direction, -1 for no edge
+    private final int[] blocks;
+    private int blockCount;
+
+    // articulation points separating the HQs, from HQ 0 to HQ 1
+    private final long[] chokeMask;
+    private int[] chokeCells;
+
+    // per player, walking distance from the HQ through non-void cells
+    private final int[][] hqDistances;
+
+    // neighbours holds 4 cell ids per cell, -1 for none, and must be symmetric
+    public MapAnalysis(int width, int height, int[] neighbours, long[] voids, int[] hqs) {
+        this.width = width;
+        this.height = height;
+        this.size = width * height;
+        this.infinity = this.size + 1;
+
+        this.articulationPoints = new long[(this.size + 63) >>> 6];
+        this.chokeMask = new long[(this.size + 63) >>> 6];
+        this.blocks = new int[4 * this.size];
+        Arrays.fill(this.blocks, -1);
+
+        this.hqDistances = new int[PLAYER_COUNT][];
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId)
+            this.hqDistances[playerId] = computeDistances(neighbours, voids, hqs[playerId]);
+
+        int[] parents = new int[this.size];
+        int[] discovery = new int[this.size];
+        int[] low = new int[this.size];
+        computeBlocks(neighbours, voids, hqs[0], parents, discovery, low);
+        if (this.hqDistances[0][hqs[PLAYER_COUNT - 1]] < this.infinity)
+            computeChokes(hqs[0], hqs[PLAYER_COUNT - 1], parents, discovery, low);
+        else
+            this.chokeCells = new int[0];
+    }
+
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+
+    public boolean isArticulationPoint(int idx) { return Board.get(this.articulationPoints, idx); }
+    public long[] getArticulationPoints() { return this.articulationPoints; }
+
+    public int getBlockCount() { return this.blockCount; }
+    public int getBlock(int idx, int direction) { return this.blocks[4 * idx + direction]; }
+
+    public boolean isChokeCell(int idx) { return Board.get(this.chokeMask, idx); }
+    public long[] getChokeMask() { return this.chokeMask; }
+    public int getChokeCount() { return this.chokeCells.length; }
+    public int getChokeCell(int i) { return this.chokeCells[i]; }
+
+    // size + 1 for void or unreachable cells
+    public int getHQDistance(int playerId, int idx) { return this.hqDistances[playerId][idx]; }
+    public int getInfinity() { return this.infinity; }
+
+    private boolean isWalkable(long[] voids, int idx) {
+        return idx >= 0 && !Board.get(voids, idx);
+    }
+
+    // iterative Tarjan over the depth-first forest, the first tree grown from firstRoot
+    private void computeBlocks(int[] neighbours, long[] voids, int firstRoot, int[] parents, int[] discovery, int[] low) {
+        int[] nextDirection = new int[this.size];
+        int[] treeEdges = new int[this.size];
+        int[] stack = new int[this.size];
+        int[] edgeStack = new int[2 * this.size];
+        Arrays.fill(parents, -1);
+        Arrays.fill(discovery, -1);
+
+        int time = 0;
+        for (int i = -1; i < this.size; ++i) {
+            int root = i < 0 ? firstRoot : i;
+            if (!isWalkable(voids, root) || discovery[root] >= 0)
+                continue;
+
+            int rootChildren = 0;
+            int top = 0;
+            int edgeTop = 0;
+            stack[top++] = root;
+            discovery[root] = low[root] = time++;
+            while (top > 0) {
+                int cell = stack[top - 1];
+                if (nextDirection[cell] < 4) {
+                    int direction = nextDirection[cell]++;
+                    int neighbour = neighbours[4 * cell + direction];
+                    if (!isWalkable(voids, neighbour))
+                        continue;
+                    if (discovery[neighbour] < 0) {
+                        parents[neighbour] = cell;
+                        treeEdges[neighbour] = 4 * cell + direction;
+                        discovery[neighbour] = low[neighbour] = time++;
+                        edgeStack[edgeTop++] = 4 * cell + direction;
+                        stack[top++] = neighbour;
+                        if (cell == root)
+                            ++rootChildren;
+                    } else if (neighbour != parents[cell] && discovery[neighbour] < discovery[cell]) {
+                        // back edge
+                        low[cell] = Math.min(low[cell], discovery[neighbour]);
+                        edgeStack[edgeTop++] = 4 * cell + direction;
+                    }
+                    continue;
+                }
+
+                --top;
+                int parent = parents[cell];
+                if (parent < 0)
+                    continue;
+                low[parent] = Math.min(low[parent], low[cell]);
+                if (low[cell] >= discovery[parent]) {
+                    // the subtree of cell only reaches the rest through parent
+                    if (parent != root)
+                        Board.set(this.articulationPoints, parent);
+                    int edge;
+                    do {
+                        edge = edgeStack[--edgeTop];
+                        setBlock(neighbours, edge, this.blockCount);
+                    } while (edge != treeEdges[cell]);
+                    ++this.blockCount;
+                }
+            }
+            // the root cuts only between its subtrees
+            if (rootChildren > 1)
+                Board.set(this.articulationPoints, root);
+        }
+    }
+
+    private void setBlock(int[] neighbours, int edge, int block) {
+        int direction = edge & 3;
+        this.blocks[edge] = block;
+        this.blocks[4 * neighbours[edge] + (direction + 2) % 4] = block;
+    }
+
+    private void computeChokes(int root, int target, int[] parents, int[] discovery, int[] low) {
+        // on the tree path up from the target, a cell cuts it off iif the child
+        // subtree holding the target has no back edge above that cell
+        int[] chokes = new int[this.size];
+        int count = 0;
+        for (int child = target, cell = parents[target]; cell != root; child = cell, cell = parents[cell]) {
+            if (low[child] >= discovery[cell]) {
+                chokes[count++] = cell;
+                Board.set(this.chokeMask, cell);
+            }
+        }
+
+        // walked from HQ 1, listed from HQ 0
+        this.chokeCells = new int[count];
+        for (int i = 0; i < count; ++i)
+            this.chokeCells[i] = chokes[count - 1 - i];
+    }
+
+    private int[] computeDistances(int[] neighbours, long[] voids, int source) {
+        int[] distances = new int[this.size];
+        Arrays.fill(distances, this.infinity);
+        if (!isWalkable(voids, source))
+            return distances;
+
+        int[] queue = new int[this.size];
+        int head = 0;
+        int tail = 0;
+        distances[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int cell = queue[head++];
+            for (int direction = 0; direction < 4; ++direction) {
+                int neighbour = neighbours[4 * cell + direction];
+                if (isWalkable(voids, neighbour) && distances[neighbour] == this.infinity) {
+                    distances[neighbour] = distances[cell] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return distances;
+    }
+}
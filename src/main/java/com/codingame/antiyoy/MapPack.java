@@ -0,0 +1,172 @@
+package com.codingame.antiyoy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Pre-generated maps for a set of seeds, one byte per cell:
+// bits 0-3 = neighbour in direction UP, RIGHT, DOWN, LEFT, bit 4 = VOID, bit 5 = mine spot.
+// File layout: header, sorted seeds (long), then one record of width * height bytes per seed.
+// The void layout does not depend on the league, mine spots are those of the mine leagues.
+// GameState loads from the pack named by the "antiyoy.mapPack" system property.
+public class MapPack {
+    static public final String PACK_PROPERTY = "antiyoy.mapPack";
+
+    static public final int VOID_BIT = 1 << 4;
+    static public final int MINE_SPOT_BIT = 1 << 5;
+
+    static private final int MAGIC = 0x4D50414B; // "MPAK"
+    static private final int VERSION = 1;
+    static private final int HEADER_SIZE = 5 * 4;
+
+    // maps generated in memory before each write
+    static private final int BATCH_SIZE = 4096;
+
+    static private final Map<String, MapPack> openPacks = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final int count;
+    private final ByteBuffer buffer;
+
+    private MapPack(int width, int height, int count, ByteBuffer buffer) {
+        this.width = width;
+        this.height = height;
+        this.count = count;
+        this.buffer = buffer;
+    }
+
+    public int getWidth() { return this.width; }
+    public int getHeight() { return this.height; }
+    public int getCount() { return this.count; }
+
+    // record number of seed, -1 if not in the pack
+    public int find(long seed) {
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midSeed = this.buffer.getLong(HEADER_SIZE + 8 * mid);
+            if (midSeed < seed)
+                low = mid + 1;
+            else if (midSeed > seed)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    public int getCell(int record, int idx) {
+        int size = this.width * this.height;
+        return this.buffer.get(HEADER_SIZE + 8 * this.count + record * size + idx) & 0xFF;
+    }
+
+    // pack named by the system property, opened once per process even by games starting at once; null if none.
+    // A pack that cannot be read fails the game with an UncheckedIOException
+    static public MapPack getConfigured() {
+        String path = System.getProperty(PACK_PROPERTY);
+        if (path == null)
+            return null;
+        return openPacks.computeIfAbsent(path, key -> {
+            try {
+                return open(Paths.get(key));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    static public MapPack open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Map pack too large: " + path);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("Not a map pack: " + path);
+            int width = buffer.getInt(8);
+            int height = buffer.getInt(12);
+            int count = buffer.getInt(16);
+            if (buffer.limit() != HEADER_SIZE + (long) count * (8 + width * height))
+                throw new IOException("Truncated map pack: " + path);
+            return new MapPack(width, height, count, buffer);
+        }
+    }
+
+    // generates the maps of all seeds in parallel and writes them to path
+    static public void generate(Path path, int width, int height, long[] seeds) throws IOException {
+        long[] sortedSeeds = Arrays.stream(seeds).sorted().distinct().toArray();
+        int count = sortedSeeds.length;
+        int size = width * height;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 8 * count);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(count);
+            for (long seed : sortedSeeds)
+                header.putLong(seed);
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header);
+
+            byte[] records = new byte[Math.min(count, BATCH_SIZE) * size];
+            for (int first = 0; first < count; first += BATCH_SIZE) {
+                int batchStart = first;
+                int batchSize = Math.min(BATCH_SIZE, count - first);
+                IntStream.range(0, batchSize).parallel().forEach(i -> encode(sortedSeeds[batchStart + i], width, height, records, i * size));
+                ByteBuffer body = ByteBuffer.wrap(records, 0, batchSize * size);
+                while (body.hasRemaining())
+                    channel.write(body);
+            }
+        }
+    }
+
+    static private void encode(long seed, int width, int height, byte[] records, int offset) {
+        // mine leagues: the void layout is the same for every league
+        GameState gameState = new GameState(seed, LEAGUE.BRONZE, width, height);
+        gameState.generateLayout(LEAGUE.BRONZE);
+        for (int idx = 0; idx < width * height; ++idx) {
+            Cell cell = gameState.getCell(idx);
+            int value = 0;
+            for (int direction = 0; direction < 4; ++direction) {
+                if (cell.getNeighbour(direction) != null)
+                    value |= 1 << direction;
+            }
+            if (cell.getOwner() == VOID)
+                value |= VOID_BIT;
+            if (cell.isMineSpot())
+                value |= MINE_SPOT_BIT;
+            records[offset + idx] = (byte) value;
+        }
+    }
+
+    // usage: MapPack <file> <width> <height> <first seed> <count>
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("usage: MapPack <file> <width> <height> <first seed> <count>");
+            System.exit(1);
+        }
+        int width = Integer.parseInt(args[1]);
+        int height = Integer.parseInt(args[2]);
+        long firstSeed = Long.parseLong(args[3]);
+        int count = Integer.parseInt(args[4]);
+
+        long[] seeds = new long[count];
+        for (int i = 0; i < count; ++i)
+            seeds[i] = firstSeed + i;
+
+        long start = System.currentTimeMillis();
+        generate(Paths.get(args[0]), width, height, seeds);
+        System.err.println(count + " maps written in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -6,53 +6,119 @@ import org.apache.commons.lang3.tuple.Pair;
 // import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import javax.naming.LinkLoopException;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import static com.codingame.antiyoy.Constants.*;
 
 public class Pathfinding {
-    private int[][] distances;
+    // all-pairs table, null above DistanceTable.MAX_SIZE cells
+    private DistanceTable distances;
+
+    private int width;
+    private int height;
+    private int MAP_SIZE;
+    private int INFINITY;
+    private int maxMoveLength;
+
+    static private final int[][] ORDERS = {{UP, RIGHT, DOWN, LEFT}, {DOWN, LEFT, UP, RIGHT}};
+
+    private int[] adjacency;
+
+    // distances to the last target asked, without a table
+    private int[] targetDistances;
+    private int[] targetQueue;
+    private int cachedTarget = -1;
+
+    // reusable bfs buffers for getNearestCell
+    private int[] queue;
+    private int[] visited;
+    private int visitStamp = 0;
+
+    public Pathfinding(GameContext context) {
+        this.width = context.getWidth();
+        this.height = context.getHeight();
+        this.maxMoveLength = context.getMaxMoveLength();
+        this.MAP_SIZE = width * height;
+        this.INFINITY = MAP_SIZE + 1;
+        this.queue = new int[MAP_SIZE];
+        this.visited = new int[MAP_SIZE];
+    }
 
-    private int MAP_SIZE = MAP_HEIGHT * MAP_WIDTH;
-    private int INFINITY = MAP_SIZE + 1;
+    public void init(Cell[][] map) {
+        // flatten the neighbour graph, -1 for no neighbour
+        adjacency = new int[4 * MAP_SIZE];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                Cell currentCell = map[x][y];
+                for (int direction = 0; direction < 4; ++direction) {
+                    Cell neighbour = currentCell.getNeighbour(direction);
+                    adjacency[4 * getId(currentCell) + direction] = neighbour == null ? -1 : getId(neighbour);
+                }
+            }
+        }
 
-    public Pathfinding() {}
+        cachedTarget = -1;
+        if (MAP_SIZE > DistanceTable.MAX_SIZE) {
+            // a V*V table does not scale: keep memory linear
+            distances = null;
+            targetDistances = new int[MAP_SIZE];
+            targetQueue = new int[MAP_SIZE];
+            return;
+        }
 
-    public void init(Cell[][] map) {
-        // init distances
         // distances wil store all cell to cell distances
-        distances = new int[MAP_SIZE][MAP_SIZE];
+        distances = DistanceTable.create(width, height, adjacency);
+    }
 
-        for (int i = 0; i < MAP_SIZE; ++i) {
-            // set all distances to infinity
-            for (int j = 0; j < MAP_SIZE; ++j) {
-                distances[i][j] = INFINITY;
-            }
-            // set distance to self to 0
-            distances[i][i] = 0;
+    // shared read-only table, null above DistanceTable.MAX_SIZE cells
+    DistanceTable getDistanceTable() { return this.distances; }
+    int[] getAdjacency() { return this.adjacency; }
+
+    public int getDistance(int fromId, int toId) {
+        if (distances != null)
+            return distances.get(fromId, toId);
+        if (toId != cachedTarget) {
+            computeDistancesTo(toId);
+            cachedTarget = toId;
         }
+        return targetDistances[fromId];
+    }
 
-        // set distance to neighbours to 1
-        for (int x = 0; x < MAP_WIDTH; ++x) {
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
-                Cell currentCell = map[x][y];
-                for (Cell neighbour : currentCell.getNeighbours()) {
-                    if (neighbour != null) {
-                        distances[getId(currentCell)][getId(neighbour)] = 1;
-                    }
+    private void computeDistancesTo(int target) {
+        // reverse bfs: a cell reaches target through any of its neighbours closer to it
+        int[] row = targetDistances;
+        int[] queue = targetQueue;
+        Arrays.fill(row, INFINITY);
+        row[target] = 0;
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = target;
+        while (head < tail) {
+            int cellId = queue[head++];
+            int x = cellId % width;
+            int y = cellId / width;
+            for (int direction = 0; direction < 4; ++direction) {
+                int previousId = getNeighbourId(x, y, direction);
+                // previous -> cell is an edge iif cell is a neighbour of previous
+                if (previousId >= 0 && row[previousId] == INFINITY && adjacency[4 * previousId + (direction + 2) % 4] == cellId) {
+                    row[previousId] = row[cellId] + 1;
+                    queue[tail++] = previousId;
                 }
             }
         }
+    }
 
-        // perform Floyd-Warshall algorithm to compute all distances
-        for (int k = 0; k < MAP_SIZE; ++k) {
-            for (int i = 0; i < MAP_SIZE; ++i) {
-                for (int j = 0; j < MAP_SIZE; ++j) {
-                    if (distances[i][j] >= distances[i][k] + distances[k][j]) {
-                        distances[i][j] = distances[i][k] + distances[k][j];
-                    }
-                }
-            }
+    private int getNeighbourId(int x, int y, int direction) {
+        switch (direction) {
+            case UP:
+                return y > 0 ? getId(x, y - 1) : -1;
+            case RIGHT:
+                return x < width - 1 ? getId(x + 1, y) : -1;
+            case DOWN:
+                return y < height - 1 ? getId(x, y + 1) : -1;
+            default:
+                return x > 0 ? getId(x - 1, y) : -1;
         }
     }
 
@@ -65,53 +131,46 @@ public class Pathfinding {
         int targetId = getId(target);
 
         // order is required to ensure symmetry
-        int[] order;
-        if (playerId == 0) {
-            order = new int[] {UP, RIGHT, DOWN, LEFT};
-        } else {
-            order = new int[] {DOWN, LEFT, UP, RIGHT};
-        }
+        int[] order = ORDERS[playerId];
 
-        boolean[] visited = new boolean[MAP_SIZE];
-        for (boolean bool : visited) {
-            bool = false;
+        // a new stamp marks every cell as unvisited without clearing the array
+        if (++visitStamp == 0) {
+            Arrays.fill(visited, 0);
+            visitStamp = 1;
         }
 
-        // left = depth, right = cellId
-        // LinkedList<Pair<Integer, Integer>> queue = new LinkedList<>();
-        LinkedList<Vector2> queue = new LinkedList<>();
-        // queue.add(new ImmutablePair<> (0, getId(start)));
-        queue.add(new Vector2(0, getId(start)));
-        visited[startId] = true;
-
+        // queue entries are depth * MAP_SIZE + cellId, each cell is queued at most once
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = startId;
+        visited[startId] = visitStamp;
 
         Cell bestCell = start;
-        int bestDistance = distances[startId][targetId];
-
-        while (!queue.isEmpty()) {
-            // Pair<Integer, Integer> pair = queue.pop();
-            // int depth = pair.getLeft();
-            // int cellId = pair.getRight();
-            Vector2 pair = queue.pop();
-            int depth = pair.getX();
-            int cellId = pair.getY();
+        int bestDistance = getDistance(startId, targetId);
+
+        while (head < tail) {
+            int entry = queue[head++];
+            int depth = entry / MAP_SIZE;
+            int cellId = entry % MAP_SIZE;
             Cell cell = getCell(map, cellId);
 
             // new best: free and nearer
-            if (distances[cellId][targetId] < bestDistance && cell.isCapturable(playerId, unit.getLevel())) {
-                bestDistance = distances[cellId][targetId];
+            int distance = getDistance(cellId, targetId);
+            if (distance < bestDistance && cell.isCapturable(playerId, unit.getLevel())) {
+                bestDistance = distance;
                 bestCell = cell;
             }
 
-            if (depth < MAX_MOVE_LENGTH && cell.getOwner() == unit.getOwner()) {
+            if (depth < maxMoveLength && cell.getOwner() == unit.getOwner()) {
                 // we can move further
                 for (int direction : order) {
                     Cell neighbour = cell.getNeighbour(direction);
                     if (neighbour != null) {
                         int neighbourId = getId(neighbour);
-                        visited[neighbourId] = true;
-                        // queue.add(new ImmutablePair<>(depth + 1, neighbourId));
-                        queue.add(new Vector2(depth + 1, neighbourId));
+                        if (visited[neighbourId] != visitStamp) {
+                            visited[neighbourId] = visitStamp;
+                            queue[tail++] = (depth + 1) * MAP_SIZE + neighbourId;
+                        }
                     }
                 }
             }
@@ -120,16 +179,56 @@ public class Pathfinding {
         return bestCell;
     }
 
+    // cells searched by getNearestCell for this unit, start excluded: their ids go to out, returns the count
+    public int getReachableCells(Cell[][] map, Unit unit, int[] out) {
+        int startId = getId(unit.getCell());
+        int[] order = ORDERS[unit.getOwner()];
+
+        if (++visitStamp == 0) {
+            Arrays.fill(visited, 0);
+            visitStamp = 1;
+        }
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = startId;
+        visited[startId] = visitStamp;
+
+        int count = 0;
+        while (head < tail) {
+            int entry = queue[head++];
+            int depth = entry / MAP_SIZE;
+            int cellId = entry % MAP_SIZE;
+            Cell cell = getCell(map, cellId);
+            if (cellId != startId)
+                out[count++] = cellId;
+
+            if (depth < maxMoveLength && cell.getOwner() == unit.getOwner()) {
+                for (int direction : order) {
+                    Cell neighbour = cell.getNeighbour(direction);
+                    if (neighbour != null) {
+                        int neighbourId = getId(neighbour);
+                        if (visited[neighbourId] != visitStamp) {
+                            visited[neighbourId] = visitStamp;
+                            queue[tail++] = (depth + 1) * MAP_SIZE + neighbourId;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
     private int getId(int x, int y) {
-        return x + MAP_WIDTH * y;
+        return x + width * y;
     }
     private int getId(Cell cell) {
         return getId(cell.getX(), cell.getY());
     }
 
     private Cell getCell(Cell[][] map, int cellId) {
-        int x = cellId % MAP_WIDTH;
-        int y = cellId / MAP_WIDTH;
+        int x = cellId % width;
+        int y = cellId / width;
         return map[x][y];
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.codingame.antiyoy;
+
+import java.util.Arrays;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Dominator tree of a player's active cells, rooted at the HQ, rebuilt on demand.
+// The territory is undirected, so the cells a capture cuts off are the ones it
+// dominates: the depth-first subtrees below it with no back edge above it.
+// Units standing on cut off cells die in the owner's next killSeparatedUnits.
+public class TerritoryTree {
+    private final Board board;
+    private final int playerId;
+    private final int width;
+    private final int size;
+
+    // board territory version the tree was built for
+    private int version = -1;
+    private int root = -1;
+
+    // depth-first preorder, -1 outside the tree: subtrees are ranges of cells
+    private final int[] discovery;
+    private final int[] low;
+    private final int[] parents;
+    private final int[] subtreeSizes;
+    private final int[] dominators;
+    private final int[] cells;
+    private int count;
+
+    // dfs scratch
+    private final int[] nextDirection;
+    private final int[] stack;
+
+    public TerritoryTree(Board board, int playerId) {
+        this.board = board;
+        this.playerId = playerId;
+        this.width = board.getWidth();
+        this.size = board.getSize();
+        this.discovery = new int[this.size];
+        this.low = new int[this.size];
+        this.parents = new int[this.size];
+        this.subtreeSizes = new int[this.size];
+        this.dominators = new int[this.size];
+        this.cells = new int[this.size];
+        this.nextDirection = new int[this.size];
+        this.stack = new int[this.size];
+        Arrays.fill(this.discovery, -1);
+    }
+
+    public int getPlayerId() { return this.playerId; }
+    public int getCellCount() { return this.count; }
+    public boolean contains(int idx) { return this.discovery[idx] >= 0; }
+
+    // closest cell every path from the HQ to idx goes through, -1 for the HQ and outside cells
+    public int getDominator(int idx) { return this.discovery[idx] > 0 ? this.dominators[idx] : -1; }
+
+    // number of cells that go inactive if idx is taken, idx excluded
+    public int getCutOffCount(int idx) {
+        if (!contains(idx))
+            return 0;
+        int count = 0;
+        for (int direction = 0; direction < 4; ++direction) {
+            int child = getChild(idx, direction);
+            if (child >= 0)
+                count += this.subtreeSizes[child];
+        }
+        return count;
+    }
+
+    // cells that go inactive if idx is taken, idx excluded; out needs room for getCutOffCount
+    public int getCutOffCells(int idx, int[] out) {
+        if (!contains(idx))
+            return 0;
+        int count = 0;
+        for (int direction = 0; direction < 4; ++direction) {
+            int child = getChild(idx, direction);
+            if (child >= 0) {
+                System.arraycopy(this.cells, this.discovery[child], out, count, this.subtreeSizes[child]);
+                count += this.subtreeSizes[child];
+            }
+        }
+        return count;
+    }
+
+    // depth-first child of idx in that direction whose subtree only reaches the HQ through idx, -1 otherwise
+    private int getChild(int idx, int direction) {
+        int child = getNeighbour(idx, direction);
+        if (child < 0 || !contains(child) || this.parents[child] != idx)
+            return -1;
+        return this.low[child] >= this.discovery[idx] ? child : -1;
+    }
+
+    private int getNeighbour(int idx, int direction) {
+        int x = idx % this.width;
+        switch (direction) {
+            case UP:
+                return idx >= this.width ? idx - this.width : -1;
+            case RIGHT:
+                return x < this.width - 1 ? idx + 1 : -1;
+            case DOWN:
+                return idx + this.width < this.size ? idx + this.width : -1;
+            default:
+                return x > 0 ? idx - 1 : -1;
+        }
+    }
+
+    // rebuilds the tree if the player's owned or active cells changed since the last build
+    public void update(int hq) {
+        int version = this.board.getTerritoryVersion(this.playerId);
+        if (version == this.version && hq == this.root)
+            return;
+        this.version = version;
+        this.root = hq;
+
+        for (int i = 0; i < this.count; ++i)
+            this.discovery[this.cells[i]] = -1;
+        this.count = 0;
+        if (!this.board.isActiveOwned(this.playerId, hq))
+            return;
+
+        // iterative dfs over active owned cells, low points on the way back
+        int top = 0;
+        this.stack[top++] = hq;
+        visit(hq, -1);
+        while (top > 0) {
+            int cell = this.stack[top - 1];
+            if (this.nextDirection[cell] < 4) {
+                int neighbour = getNeighbour(cell, this.nextDirection[cell]++);
+                if (neighbour < 0 || !this.board.isActiveOwned(this.playerId, neighbour))
+                    continue;
+                if (!contains(neighbour)) {
+                    visit(neighbour, cell);
+                    this.stack[top++] = neighbour;
+                } else if (neighbour != this.parents[cell]) {
+                    this.low[cell] = Math.min(this.low[cell], this.discovery[neighbour]);
+                }
+                continue;
+            }
+
+            --top;
+            int parent = this.parents[cell];
+            if (parent >= 0) {
+                this.low[parent] = Math.min(this.low[parent], this.low[cell]);
+                this.subtreeSizes[parent] += this.subtreeSizes[cell];
+            }
+        }
+
+        // in preorder: the parent dominates a cell iif the cell's subtree has no back edge above it,
+        // otherwise the cell shares its parent's dominator
+        for (int i = 1; i < this.count; ++i) {
+            int cell = this.cells[i];
+            int parent = this.parents[cell];
+            this.dominators[cell] = this.low[cell] >= this.discovery[parent] ? parent : this.dominators[parent];
+        }
+    }
+
+    private void visit(int cell, int parent) {
+        this.discovery[cell] = this.low[cell] = this.count;
+        this.cells[this.count++] = cell;
+        this.parents[cell] = parent;
+        this.subtreeSizes[cell] = 1;
+        this.nextDirection[cell] = 0;
+        this.dominators[cell] = -1;
+    }
+}
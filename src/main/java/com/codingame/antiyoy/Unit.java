@@ -8,22 +8,20 @@ public class Unit extends Entity {
     private int level;
     private boolean alive;
     private boolean canMove;
-    private static int unitIdCount = 1;
 
     private Cell cell;
 
     private UnitView viewer;
 
-    public Unit(Cell cell, int ownerId, int level) {
+    public Unit(Cell cell, int ownerId, int level, int id) {
         super(cell.getX(), cell.getY(), ownerId);
         this.alive = true;
         this.canMove = false;  // cannot play after TRAIN
 
         this.cell = cell;
 
-        // Grant a unique id
-        this.id = unitIdCount;
-        unitIdCount++;
+        // unique id, granted by the GameContext
+        this.id = id;
 
         this.level = level;
     }
@@ -45,6 +43,7 @@ public class Unit extends Entity {
     public void doDispose() {
         this.cell.setUnit(null);
         this.alive = false;
-        this.viewer.doDispose();
+        if (this.viewer != null)
+            this.viewer.doDispose();
     }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+
+// Zobrist keys of a position, XORed in and out as the game changes.
+// Each key is a splitmix64 mix of what it describes, so keys are the same in
+// every game and process and no table grows with the map size.
+public class Zobrist {
+    // positions whose gold differs by less than a level 1 unit share a key
+    static public final int GOLD_BUCKET = UNIT_COST[1];
+
+    static private final long OWNER = 1L << 56;
+    static private final long UNIT = 2L << 56;
+    static private final long BUILDING = 3L << 56;
+    static private final long GOLD = 4L << 56;
+    static private final long SIDE = 5L << 56;
+
+    // neutral and void cells hash to 0
+    static public long owner(int idx, int playerId) {
+        return playerId < 0 ? 0 : mix(OWNER | (long) idx << 8 | playerId);
+    }
+
+    static public long unit(int idx, int playerId, int level) {
+        return mix(UNIT | (long) idx << 8 | playerId << 4 | level);
+    }
+
+    static public long building(int idx, int playerId, BUILDING_TYPE type) {
+        return mix(BUILDING | (long) idx << 8 | playerId << 4 | type.ordinal());
+    }
+
+    static public long gold(int playerId, int gold) {
+        long bucket = Math.floorDiv(gold, GOLD_BUCKET) & 0xFFFFFFFFL;
+        return mix(GOLD | bucket << 8 | playerId);
+    }
+
+    // nobody to move before the first turn
+    static public long side(int playerId) {
+        return playerId < 0 ? 0 : mix(SIDE | playerId);
+    }
+
+    static private long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -31,19 +31,25 @@ public class GameStateView extends AbstractView {
         units = new ArrayList<>();
         buildings = new ArrayList<>();
         grid = new ArrayList<>();
+
+        // large maps are shrunk to fit the 12x12 grid area
+        int mapWidth = gameState.getContext().getWidth();
+        int mapHeight = gameState.getContext().getHeight();
+        double scale = (double) MAP_WIDTH / Math.max(mapWidth, mapHeight);
+
         this.group = this.entityModule.createGroup()
                 .setX(GRID_X)
                 .setY(GRID_Y)
                 .setVisible(true)
                 .setZIndex(0)
-                .setScale(1);
+                .setScale(scale);
 
         int gridStrength = 3;
         // add grid columns
-        for (int x = 0; x <= MAP_WIDTH; ++x) {
+        for (int x = 0; x <= mapWidth; ++x) {
             int columnX = CELL_SIZE * x;
             Rectangle column = this.entityModule.createRectangle()
-                    .setHeight(GRID_HEIGHT)
+                    .setHeight(CELL_SIZE * mapHeight)
                     .setWidth(gridStrength)
                     .setX(columnX)
                     .setY(0)
@@ -53,11 +59,11 @@ public class GameStateView extends AbstractView {
         }
 
         // add grid lines
-        for (int y = 0; y <= MAP_HEIGHT; ++y) {
+        for (int y = 0; y <= mapHeight; ++y) {
             int lineY = CELL_SIZE * y;
             Rectangle line = this.entityModule.createRectangle()
                     .setHeight(gridStrength)
-                    .setWidth(GRID_HEIGHT)
+                    .setWidth(CELL_SIZE * mapWidth)
                     .setX(0)
                     .setY(lineY)
                     .setFillColor(0x000000)
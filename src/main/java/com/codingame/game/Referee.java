@@ -1,9 +1,9 @@
 package com.codingame.game;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.codingame.antiyoy.*;
 import com.codingame.gameengine.core.AbstractPlayer.TimeoutException;
@@ -30,14 +30,30 @@ public class Referee extends AbstractReferee {
 
     private LEAGUE league;
 
+    // null in headless mode
     private ViewController viewController;
 
-    private List<Action> actionList = new ArrayList<>();
+    private ArrayDeque<Action> actionQueue = new ArrayDeque<>();
+    private CommandTokenizer commandTokenizer = new CommandTokenizer();
 
     private AtomicInteger currentPlayer;
 
     private AtomicInteger realTurn;
 
+    // frames=turn: a player's whole turn is one frame, each action committed at an instant of it
+    private boolean framePerTurn;
+    // frames=turn: the frame's summary lines, written once the frame is played
+    private final List<String> turnSummary = new ArrayList<>();
+    // invalid actions and other notes among them, and made actions per ACTIONTYPE
+    private final List<String> turnNotes = new ArrayList<>();
+    private final int[] turnActionCounts = new int[ACTIONTYPE.values().length];
+
+    // per player, chars of the initial input still to be sent along with their first turn input
+    private final int[] initialInputLengths = new int[PLAYER_COUNT];
+
+    // why the game ended, the first reason wins
+    private String endReason;
+
     @Override
     public void onEnd() {
         //int[] scores = new int[2];
@@ -50,14 +66,27 @@ public class Referee extends AbstractReferee {
         } else {
             endScreenModule.setScores(gameManager.getPlayers().stream().mapToInt(p -> p.getScore()).toArray());
         }
+
+        // game statistics, read by batch runs
+        gameManager.putMetadata("turns", String.valueOf(Math.min(this.realTurn.intValue(), MAX_TURNS)));
+        gameManager.putMetadata("endReason", this.endReason == null ? "unknown" : this.endReason);
+    }
+
+    private void setEndReason(String reason) {
+        if (this.endReason == null)
+            this.endReason = reason;
     }
 
     @Override
     public void init() {
         // this.endScreenModule = new EndScreenModule();
-        this.gameManager.setMaxTurns(1000000); // Turns are determined by realTurns, this is actually maxFrames
+        this.framePerTurn = "turn".equals(this.gameManager.getGameParameters().getProperty("frames"));
+        if (this.framePerTurn)
+            this.gameManager.setMaxTurns(PLAYER_COUNT * (MAX_TURNS + 1)); // one frame per player turn
+        else
+            this.gameManager.setMaxTurns(1000000); // Turns are determined by realTurns, this is actually maxFrames
 
-        this.gameManager.setFrameDuration(400);
+        this.gameManager.setFrameDuration(FRAME_DURATION);
 
         this.currentPlayer = new AtomicInteger(-1);
         this.realTurn = new AtomicInteger(0);
@@ -66,18 +95,14 @@ public class Referee extends AbstractReferee {
         switch (this.gameManager.getLeagueLevel()) {
             case 1:
                 // Only T1 units, no building
-                MAX_MOVE_LENGTH = 1;
-                MAX_LEVEL = 1;
                 this.league = LEAGUE.WOOD3;
                 break;
             case 2:
                 // Now T2/T3 units, kill mechanism
-                MAX_MOVE_LENGTH = 1;
                 this.league = LEAGUE.WOOD2;
                 break;
             case 3:
                 // Now Mines are unlocked
-                MAX_MOVE_LENGTH = 1;
                 this.league = LEAGUE.WOOD1;
                 break;
             default:
@@ -85,7 +110,17 @@ public class Referee extends AbstractReferee {
                 this.league = LEAGUE.BRONZE;
         }
 
-        this.gameState = new GameState(this.gameManager.getSeed(), this.league);
+        boolean headless = Boolean.parseBoolean(this.gameManager.getGameParameters().getProperty("headless"));
+
+        // map size, from the game parameters in large-map mode
+        int width = readMapSize("width", MAP_WIDTH);
+        int height = readMapSize("height", MAP_HEIGHT);
+        // a game of another size than asked for would go unnoticed in a batch: fail instead
+        if (!fitsRunner(width, height, headless))
+            throw new IllegalArgumentException("Map " + width + "x" + height + " is too large for the runner"
+                + (headless ? "" : " with the viewer, larger maps need headless=true"));
+        // league rules, map size and ids live in a per-game context
+        this.gameState = new GameState(this.gameManager.getSeed(), new GameContext(this.league, width, height));
 
         // Random generation
         this.gameState.generateMap(this.league);
@@ -100,8 +135,35 @@ public class Referee extends AbstractReferee {
         // send map size and mine spots
         sendInitialInput();
 
-        // Initialize viewer
-        initializeView();
+        // Initialize viewer, unless nobody watches
+        if (headless) {
+            this.graphicEntityModule.disable();
+            this.tooltipModule.disable();
+        } else {
+            initializeView();
+        }
+    }
+
+    private int readMapSize(String key, int defaultSize) {
+        String value = this.gameManager.getGameParameters().getProperty(key);
+        if (value == null)
+            return defaultSize;
+        int size;
+        try {
+            size = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        if (size < MAP_MIN_SIZE || size > MAP_MAX_SIZE)
+            throw new IllegalArgumentException("Invalid map " + key + " " + value + ", expected " + MAP_MIN_SIZE + " to " + MAP_MAX_SIZE);
+        return size;
+    }
+
+    // the map rows of a turn input, and the first view frame unless headless, must fit the runner's buffers
+    private static boolean fitsRunner(int width, int height, boolean headless) {
+        if (height * (width + 1) + INPUT_ENTITY_RESERVE > RUNNER_INPUT_CAPACITY)
+            return false;
+        return headless || width * height * VIEW_CHARS_PER_CELL <= RUNNER_VIEW_CAPACITY;
     }
 
     private void initializeView() {
@@ -109,8 +171,8 @@ public class Referee extends AbstractReferee {
         this.viewController = new ViewController(graphicEntityModule, tooltipModule, gameManager.getPlayers(), this.gameState, this.realTurn, this.currentPlayer);
 
         // Add all cells
-        for (int x = 0; x < MAP_WIDTH; ++x)
-            for (int y = 0; y < MAP_HEIGHT; ++y)
+        for (int x = 0; x < this.gameState.getWidth(); ++x)
+            for (int y = 0; y < this.gameState.getHeight(); ++y)
                 this.viewController.createCellView(this.gameState.getCell(x, y));
 
         // Add HQs
@@ -122,18 +184,13 @@ public class Referee extends AbstractReferee {
     }
 
     private void updateView() {
-        viewController.update();
+        if (viewController != null)
+            viewController.update();
     }
 
     @Override
     public void gameTurn(int turn) {
-        if (hasAction()) {
-            boolean madeAnAction = false;
-            while (hasAction() && !madeAnAction) {
-                madeAnAction = makeAction();
-            }
-        }
-        else {
+        if (!hasAction()) {
             // get current player
             if (!computeCurrentPlayer()) {
                 return;
@@ -144,13 +201,23 @@ public class Referee extends AbstractReferee {
             gameState.initTurn(this.currentPlayer.intValue());
 
             /// Send input
-            sendInput(player);
+            if (!sendInput(player)) {
+                // more units and buildings than the runner can carry: stop rather than crash it
+                gameManager.addToGameSummary("Turn input too large for the runner, game stopped");
+                setEndReason("input_overflow");
+                discriminateEndGame();
+                return;
+            }
             player.execute();
 
             // Read and parse answer
             readInput(player);
+        }
 
-            // Make the first action to save frames
+        if (this.framePerTurn) {
+            makeAllActions();
+        } else {
+            // Make the next action, the first one shares the frame with the player's turn to save frames
             boolean madeAnAction = false;
             while (hasAction() && !madeAnAction) {
                 madeAnAction = makeAction();
@@ -158,6 +225,80 @@ public class Referee extends AbstractReferee {
         }
         updateView();
         checkForHqCapture();
+        if (this.framePerTurn)
+            flushTurnSummary();
+    }
+
+    private void addToSummary(String line) {
+        if (this.framePerTurn) {
+            this.turnSummary.add(line);
+            this.turnNotes.add(line);
+        } else {
+            gameManager.addToGameSummary(line);
+        }
+    }
+
+    private void addToSummary(String line, ACTIONTYPE made) {
+        if (this.framePerTurn) {
+            this.turnSummary.add(line);
+            ++this.turnActionCounts[made.ordinal()];
+        } else {
+            gameManager.addToGameSummary(line);
+        }
+    }
+
+    // the SDK drops summary lines past GAME_SUMMARY_CAPACITY chars per frame: a turn that does not fit
+    // is summarised as its action counts, then as many invalid actions and notes as fit
+    private void flushTurnSummary() {
+        if (this.turnSummary.isEmpty())
+            return;
+        String summary = String.join("\n", this.turnSummary);
+        if (summary.length() > GAME_SUMMARY_CAPACITY) {
+            StringBuilder compact = new StringBuilder()
+                .append(gameManager.getPlayer(this.currentPlayer.intValue()).getNicknameToken())
+                .append(" moved ").append(this.turnActionCounts[ACTIONTYPE.MOVE.ordinal()])
+                .append(" units, trained ").append(this.turnActionCounts[ACTIONTYPE.TRAIN.ordinal()])
+                .append(" and built ").append(this.turnActionCounts[ACTIONTYPE.BUILD.ordinal()]);
+            int shown = 0;
+            // keep room for the "... and N more lines" tail
+            for (String note : this.turnNotes) {
+                if (compact.length() + 1 + note.length() > GAME_SUMMARY_CAPACITY - 32)
+                    break;
+                compact.append('\n').append(note);
+                ++shown;
+            }
+            if (shown < this.turnNotes.size())
+                compact.append("\n... and ").append(this.turnNotes.size() - shown).append(" more lines");
+            summary = compact.toString();
+        }
+        // one entry: the SDK only checks the frame quota before each entry
+        gameManager.addToGameSummary(summary);
+
+        this.turnSummary.clear();
+        this.turnNotes.clear();
+        Arrays.fill(this.turnActionCounts, 0);
+    }
+
+    // whole turn in this frame: the view is committed after each action, at its share of the frame
+    private void makeAllActions() {
+        int actionCount = this.actionQueue.size();
+        int madeActions = 0;
+        for (int i = 1; hasAction(); ++i) {
+            if (!makeAction())
+                continue;
+            ++madeActions;
+            if (isHqCaptured()) {
+                // game over once the frame ends, the rest of the turn is not played
+                this.actionQueue.clear();
+                break;
+            }
+            if (viewController != null && hasAction()) {
+                viewController.update();
+                graphicEntityModule.commitWorldState((double) i / actionCount);
+            }
+        }
+        // as long as the same actions over several frames
+        this.gameManager.setFrameDuration(FRAME_DURATION * Math.max(1, madeActions));
     }
 
     // return true if there is a next player, false if this is the end of the game
@@ -175,7 +316,7 @@ public class Referee extends AbstractReferee {
     }
 
     private boolean hasAction() {
-        return !actionList.isEmpty();
+        return !actionQueue.isEmpty();
     }
 
 
@@ -183,7 +324,7 @@ public class Referee extends AbstractReferee {
         Player player = gameManager.getPlayer(action.getPlayer());
 
         if (!gameState.getUnit(action.getUnitId()).canPlay()) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (unit already moved) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (unit already moved) " + action);
             return false;
         }
 
@@ -192,7 +333,7 @@ public class Referee extends AbstractReferee {
 
         // Free cell or killable unit / destroyable building
         if (!action.getCell().isCapturable(action.getPlayer(), unit.getLevel()) && Math.abs(unit.getX() - action.getCell().getX()) + Math.abs(unit.getY() - action.getCell().getY()) == 1) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (cell occupied) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (cell occupied) " + action);
             return false;
         }
 
@@ -200,43 +341,38 @@ public class Referee extends AbstractReferee {
 
         if (nextCell.getX() == unit.getCell().getX() && nextCell.getY() == unit.getCell().getY()) {
             // no MOVE to do
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Unit " + unitId + " stayed still (no nearest cell in range) " + action);
+            addToSummary(player.getNicknameToken() + ": Unit " + unitId + " stayed still (no nearest cell in range) " + action);
             return false;
         }
         this.gameState.moveUnit(unit, nextCell);
-        this.gameState.computeAllActiveCells();
-        gameManager.addToGameSummary(player.getNicknameToken() + " moved " + unitId + " to (" + nextCell.getX() + ", " + nextCell.getY() + ")");
-        for (int i = 0; i < PLAYER_COUNT; ++i)
-            gameState.computeIncome(i);
+        addToSummary(player.getNicknameToken() + " moved " + unitId + " to (" + nextCell.getX() + ", " + nextCell.getY() + ")", ACTIONTYPE.MOVE);
         return true;
     }
 
     private boolean makeTrainAction(Action action) {
         Player player = gameManager.getPlayer(action.getPlayer());
 
-        if (action.getLevel() > MAX_LEVEL) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (the level must be less than " + action.getLevel() + ") " + action);
+        if (action.getLevel() > this.gameState.getContext().getMaxLevel()) {
+            addToSummary(player.getNicknameToken() + ": Invalid action (the level must be less than " + action.getLevel() + ") " + action);
             return false;
         }
 
         if (gameState.getGold(player.getIndex()) < UNIT_COST[action.getLevel()]) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (not enough gold) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (not enough gold) " + action);
             return false;
         }
 
         // Free cell or killable unit / destroyable building
         if (!action.getCell().isCapturable(action.getPlayer(), action.getLevel())) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (cell occupied) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (cell occupied) " + action);
             return false;
         }
 
-        Unit unit = new Unit(action.getCell(), action.getPlayer(), action.getLevel());
+        Unit unit = new Unit(action.getCell(), action.getPlayer(), action.getLevel(), this.gameState.getContext().nextUnitId());
         this.gameState.addUnit(unit);
-        this.gameState.computeAllActiveCells();
-        viewController.createUnitView(unit);
-        gameManager.addToGameSummary(player.getNicknameToken() + " trained a unit in (" + action.getCell().getX() + ", " + action.getCell().getY() + ")");
-        for (int i = 0; i < PLAYER_COUNT; ++i)
-            gameState.computeIncome(i);
+        if (viewController != null)
+            viewController.createUnitView(unit);
+        addToSummary(player.getNicknameToken() + " trained a unit in (" + action.getCell().getX() + ", " + action.getCell().getY() + ")", ACTIONTYPE.TRAIN);
         return true;
     }
 
@@ -249,57 +385,55 @@ public class Referee extends AbstractReferee {
             if (league == LEAGUE.WOOD2 && action.getBuildType() == BUILDING_TYPE.TOWER)
                 message = "Invalid action (no TOWER in this league)";
 
-            gameManager.addToGameSummary(player.getNicknameToken() + ": " + message + " " + action);
+            addToSummary(player.getNicknameToken() + ": " + message + " " + action);
             return false;
         }
 
         if (!action.getCell().isFree()) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (cell occupied) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (cell occupied) " + action);
             return false;
         }
 
         if (action.getCell().getOwner() != action.getPlayer()) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (cell not owned) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (cell not owned) " + action);
             return false;
         }
 
         if (gameState.getGold(player.getIndex()) < this.gameState.getBuildingCost(action.getBuildType(), action.getPlayer())) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (not enough gold) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (not enough gold) " + action);
             return false;
         }
 
         if (action.getBuildType() == BUILDING_TYPE.MINE && !action.getCell().isMineSpot()) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (not a mine spot) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (not a mine spot) " + action);
             return false;
         }
 
         if (action.getBuildType() == BUILDING_TYPE.TOWER && action.getCell().isMineSpot()) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (cannot build tower on mine spot) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (cannot build tower on mine spot) " + action);
             return false;
         }
 
         Building building = new Building(action.getCell(), action.getPlayer(), action.getBuildType());
         this.gameState.addBuilding(building);
-        viewController.createBuildingView(building);
+        if (viewController != null)
+            viewController.createBuildingView(building);
         if (action.getBuildType() == BUILDING_TYPE.MINE)
-            gameManager.addToGameSummary(player.getNicknameToken() + " built a MINE in (" + action.getCell().getX() + ", " + action.getCell().getY() + ")");
+            addToSummary(player.getNicknameToken() + " built a MINE in (" + action.getCell().getX() + ", " + action.getCell().getY() + ")", ACTIONTYPE.BUILD);
         else if (action.getBuildType() == BUILDING_TYPE.TOWER)
-            gameManager.addToGameSummary(player.getNicknameToken() + " built a TOWER in (" + action.getCell().getX() + ", " + action.getCell().getY() + ")");
-        for (int i = 0; i < PLAYER_COUNT; ++i)
-            gameState.computeIncome(i);
+            addToSummary(player.getNicknameToken() + " built a TOWER in (" + action.getCell().getX() + ", " + action.getCell().getY() + ")", ACTIONTYPE.BUILD);
         return true;
     }
 
     private boolean makeAction() {
-        Action action = this.actionList.get(0);
-        this.actionList.remove(0);
+        Action action = this.actionQueue.poll();
 
         Player player = gameManager.getPlayer(action.getPlayer());
 
         // TRAIN & BUILD can only be done on a playable cell
         // MOVE on the contrary can target any cell
         if (action.getType() != ACTIONTYPE.MOVE && !action.getCell().isPlayable(player.getIndex())) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (cell not playable) " + action);
+            addToSummary(player.getNicknameToken() + ": Invalid action (cell not playable) " + action);
             return false;
         }
 
@@ -319,15 +453,23 @@ public class Referee extends AbstractReferee {
 
 
         for (Player player : gameManager.getActivePlayers()) {
+            // large maps announce their size first, the 12x12 protocol is unchanged
+            if (!this.gameState.isDefaultSize()) {
+                String size = this.gameState.getWidth() + " " + this.gameState.getHeight();
+                player.sendInputLine(size);
+                this.initialInputLengths[player.getIndex()] += size.length() + 1;
+            }
             player.sendInputLine(nbMineSpots.toString());
+            this.initialInputLengths[player.getIndex()] += nbMineSpots.length() + 1;
 
             // send mine spots
-            for (int y = 0; y < MAP_HEIGHT; ++y) {
-                for (int x = 0; x < MAP_WIDTH; ++x) {
+            for (int y = 0; y < this.gameState.getHeight(); ++y) {
+                for (int x = 0; x < this.gameState.getWidth(); ++x) {
                     if (this.gameState.getCell(x, y).isMineSpot()) {
                         StringBuilder mineSpot = new StringBuilder();
                         mineSpot.append(x).append(" ").append(y);
                         player.sendInputLine(mineSpot.toString());
+                        this.initialInputLengths[player.getIndex()] += mineSpot.length() + 1;
                     }
                 }
             }
@@ -335,8 +477,14 @@ public class Referee extends AbstractReferee {
     }
 
 
-    private void sendInput(Player player) {
-        this.gameState.sendState(player);
+    // false if the input does not fit the runner's buffer, counting the initial input only the first turn also carries
+    private boolean sendInput(Player player) {
+        String input = this.gameState.writeState(player.getIndex());
+        if (input.length() + this.initialInputLengths[player.getIndex()] > RUNNER_INPUT_CAPACITY)
+            return false;
+        GameState.sendLines(player, input);
+        this.initialInputLengths[player.getIndex()] = 0;
+        return true;
     }
 
     private void readInput(Player player) {
@@ -346,142 +494,93 @@ public class Referee extends AbstractReferee {
                 return;
             }
 
-            String[] actions = outputs.get(0).split(";");
-
-            for (String actionStr : actions) {
-                actionStr = actionStr.trim();
+            CommandTokenizer commands = this.commandTokenizer;
+            commands.reset(outputs.get(0));
 
-                if (actionStr.equals("WAIT")) {
+            while (commands.next()) {
+                int kind = commands.getKind();
+                if (kind == CommandTokenizer.WAIT) {
                     continue;
                 }
 
-                if (matchMsg(player, actionStr)) {
+                if (kind == CommandTokenizer.MSG) {
                     // set message
+                    player.setMessage(commands.getMessage());
                     continue;
                 }
 
-                if (!matchMoveTrain(player, actionStr) && !matchBuild(player, actionStr)) {
+                if (kind == CommandTokenizer.UNRECOGNISED) {
                     // unrecognized pattern: timeout
-                    gameManager.addToGameSummary(player.getNicknameToken() + ": Unrecognised command (\"" + actionStr+"\")");
+                    String actionStr = commands.getCommand();
+                    addToSummary(player.getNicknameToken() + ": Unrecognised command (\"" + actionStr+"\")");
                     // clear actions
-                    actionList.clear();
+                    actionQueue.clear();
                     player.deactivate(String.format("$%d: unrecognised command (\"%s\")", player.getIndex(), actionStr));
+                    setEndReason("invalid_output");
                     checkForEndGame();
                     break;
                 }
+
+                readAction(player, commands);
             }
         } catch (TimeoutException e) {
             player.deactivate(String.format("$%d timeout!", player.getIndex()));
+            setEndReason("timeout");
             checkForEndGame();
         }
     }
 
 
     private void createTrainAction(Player player, int level, int x, int y, String actionStr) {
-        if (level <= 0 || level > MAX_LEVEL) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (invalid level) " + actionStr);
+        if (level <= 0 || level > this.gameState.getContext().getMaxLevel()) {
+            addToSummary(player.getNicknameToken() + ": Invalid action (invalid level) " + actionStr);
             return;
         }
 
         Action action = new Action(actionStr, ACTIONTYPE.TRAIN, player.getIndex(), level, this.gameState.getCell(x, y));
-        this.actionList.add(action);
+        this.actionQueue.add(action);
     }
 
 
     private void createMoveAction(Player player, int id, int x, int y, String actionStr) {
         if (gameState.getUnit(id) == null) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (invalid id) " + actionStr);
+            addToSummary(player.getNicknameToken() + ": Invalid action (invalid id) " + actionStr);
             return;
         }
 
         if (player.getIndex() != gameState.getUnit(id).getOwner()) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (not your unit) " + actionStr);
+            addToSummary(player.getNicknameToken() + ": Invalid action (not your unit) " + actionStr);
             return;
         }
 
         Action action = new Action(actionStr, ACTIONTYPE.MOVE, player.getIndex(), id, this.gameState.getCell(x, y));
-        this.actionList.add(action);
-    }
-
-    private boolean matchMsg(Player player, String actionStr) {
-        Matcher msgMatcher = MSG_PATTERN.matcher(actionStr);
-        if (!msgMatcher.find()) {
-            return false;
-        }
-
-        try {
-            String message = actionStr.substring(4);
-            player.setMessage(message);
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+        this.actionQueue.add(action);
     }
 
-    private boolean matchMoveTrain(Player player, String actionStr) {
-        Matcher moveTrainMatcher = MOVETRAIN_PATTERN.matcher(actionStr);
-        if (!moveTrainMatcher.find())
-            return false;
-
-        ACTIONTYPE type = (moveTrainMatcher.group(1).equals("TRAIN")) ? ACTIONTYPE.TRAIN : ACTIONTYPE.MOVE;
-        int idOrLevel;
-        int x;
-        int y;
+    // MOVE, TRAIN or BUILD command, queued if it passes the parse-time checks
+    private void readAction(Player player, CommandTokenizer command) {
+        int x = command.getX();
+        int y = command.getY();
 
-        try {
-            idOrLevel = Integer.parseInt(moveTrainMatcher.group(2));
-            x = Integer.parseInt(moveTrainMatcher.group(3));
-            y = Integer.parseInt(moveTrainMatcher.group(4));
-        } catch (NumberFormatException e) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (out of bounds) " + actionStr);
-            return true;
-        }
-    
-        if (!gameState.isInside(x, y)) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (out of bounds) " + actionStr);
-            return true;
+        // numbers Integer.parseInt rejects count as out of bounds
+        if (command.getKind() == CommandTokenizer.BAD_NUMBER || !gameState.isInside(x, y)) {
+            addToSummary(player.getNicknameToken() + ": Invalid action (out of bounds) " + command.getCommand());
+            return;
         }
 
-        if (type == ACTIONTYPE.TRAIN) {
-            if (league == LEAGUE.WOOD3 && idOrLevel != 1) {
-                gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (only level 1 units in this league) " + actionStr);
-                return true;
+        if (command.getKind() == CommandTokenizer.TRAIN) {
+            int level = command.getIdOrLevel();
+            if (league == LEAGUE.WOOD3 && level != 1) {
+                addToSummary(player.getNicknameToken() + ": Invalid action (only level 1 units in this league) " + command.getCommand());
+                return;
             }
-            createTrainAction(player, idOrLevel, x, y, actionStr);
-        } else { // MOVE
-            createMoveAction(player, idOrLevel, x, y, actionStr);
-        }
-
-        return true;
-    }
-
-
-    private boolean matchBuild(Player player, String actionStr) {
-        Matcher buildMatcher = BUILD_PATTERN.matcher(actionStr);
-        if (!buildMatcher.find())
-            return false;
-
-        String typeStr = buildMatcher.group(1);
-        BUILDING_TYPE buildType = Building.convertType(typeStr);
-        int x;
-        int y;
-
-        try {
-            x = Integer.parseInt(buildMatcher.group(2));
-            y = Integer.parseInt(buildMatcher.group(3));
-        } catch (NumberFormatException e) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (out of bounds) " + actionStr);
-            return true;
+            createTrainAction(player, level, x, y, command.getCommand());
+        } else if (command.getKind() == CommandTokenizer.MOVE) {
+            createMoveAction(player, command.getIdOrLevel(), x, y, command.getCommand());
+        } else { // BUILD
+            Action action = new Action(command.getCommand(), ACTIONTYPE.BUILD, player.getIndex(), this.gameState.getCell(x, y), command.getBuildType());
+            this.actionQueue.add(action);
         }
-
-        if (!gameState.isInside(x, y)) {
-            gameManager.addToGameSummary(player.getNicknameToken() + ": Invalid action (out of bounds) " + actionStr);
-            return true;
-        }
-
-        Action action = new Action(actionStr, ACTIONTYPE.BUILD, player.getIndex(), this.gameState.getCell(x, y), buildType);
-        this.actionList.add(action);
-        return true;
     }
 
 
@@ -490,10 +589,18 @@ public class Referee extends AbstractReferee {
             if (HQ.getCell().getOwner() != HQ.getOwner()) {
                 int playerIdx = HQ.getOwner();
                 gameManager.getPlayer(playerIdx).deactivate();
+                setEndReason("hq_capture");
                 checkForEndGame();
             }
         }
     }
+
+    private boolean isHqCaptured() {
+        for (Building HQ : this.gameState.getHQs())
+            if (HQ.getCell().getOwner() != HQ.getOwner())
+                return true;
+        return false;
+    }
     private void checkForEndGame() {
         if (!gameManager.getPlayer(0).isActive()) {
             // score = military value
@@ -512,6 +619,7 @@ public class Referee extends AbstractReferee {
     }
 
     private void discriminateEndGame() {
+        setEndReason("max_turns");
         List<AtomicInteger> scores = this.gameState.getScores();
         gameManager.getPlayer(0).setScore(scores.get(0).intValue());
         gameManager.getPlayer(1).setScore(scores.get(1).intValue());
@@ -12,7 +12,7 @@ import java.util.Optional;
  *            a subclass inheriting Entity, used in order to return <b>this</b> as a T instead of an Entity.
  */
 public abstract class Entity<T extends Entity<?>> {
-    final int id;
+    int id;
     EntityState state;
 
     private int x, y, zIndex;
@@ -27,7 +27,6 @@ public abstract class Entity<T extends Entity<?>> {
     }
 
     Entity() {
-        id = ++GraphicEntityModule.ENTITY_COUNT;
         state = new EntityState();
 
         // World commits made before the creation of an entity should not affect that entity.
@@ -28,7 +28,8 @@ public class GraphicEntityModule implements Module {
 
     //TODO: extra properties for Texts (text wrapping, alignement, ...)
 
-    static int ENTITY_COUNT = 0;
+    // ids are per module, hence per game
+    private int entityCount = 0;
 
     private List<SpriteSheetSplitter> newSpriteSheetSplitters;
     private List<Entity<?>> newEntities;
@@ -36,6 +37,7 @@ public class GraphicEntityModule implements Module {
     private Map<String, WorldState> worldStates;
     private World world;
     private boolean lockWorld;
+    private boolean disabled;
     private WorldState currentWorldState;
 
     private GameManager<AbstractPlayer> gameManager;
@@ -363,11 +365,19 @@ public class GraphicEntityModule implements Module {
     }
 
     private void newEntity(Entity<?> e) {
+        e.id = ++entityCount;
         lockWorld = true;
         entities.add(e);
         newEntities.add(e);
     }
 
+    /**
+     * Stops sending any data to the viewer, for headless games. Entities may still be created but are never serialized.
+     */
+    public void disable() {
+        disabled = true;
+    }
+
     private void sendGlobalData() {
         gameManager.setViewGlobalData("entitymodule", world);
         lockWorld = true;
@@ -375,12 +385,18 @@ public class GraphicEntityModule implements Module {
 
     @Override
     public final void onGameInit() {
+        if (disabled) {
+            return;
+        }
         sendGlobalData();
         sendFrameData();
     }
 
     @Override
     public final void onAfterGameTurn() {
+        if (disabled) {
+            return;
+        }
         sendFrameData();
     }
 
@@ -21,6 +21,7 @@ public class TooltipModule implements Module {
     GameManager<AbstractPlayer> gameManager;
     @Inject GraphicEntityModule entityModule;
     Map<Integer, String> registered, newRegistration;
+    boolean disabled;
 
     @Inject
     TooltipModule(GameManager<AbstractPlayer> gameManager) {
@@ -30,14 +31,25 @@ public class TooltipModule implements Module {
         newRegistration = new HashMap<>();
     }
 
+    /**
+     * Stops sending tooltips to the viewer, for headless games.
+     */
+    public void disable() {
+        disabled = true;
+    }
+
     @Override
     public void onGameInit() {
-        sendFrameData();
+        if (!disabled) {
+            sendFrameData();
+        }
     }
 
     @Override
     public void onAfterGameTurn() {
-        sendFrameData();
+        if (!disabled) {
+            sendFrameData();
+        }
     }
 
     @Override
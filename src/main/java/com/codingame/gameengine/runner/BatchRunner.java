@@ -0,0 +1,290 @@
+package com.codingame.gameengine.runner;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+
+import com.codingame.gameengine.runner.dto.GameResult;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Plays a range of seeds between two agents inside one JVM, on a thread pool, and streams one line per game to a results file:
+ * seed, scores, turns and end reason. Games run headless.
+ * <p>
+ * An agent is either a command line (one child process per game) or <code>java:&lt;class name&gt;</code> for a bot run in-process.
+ * </p>
+ * <p>
+ * <code>GameRunner.simulate()</code> swaps the global System.out and System.err for the whole game to capture the referee's output,
+ * so games played at once would capture each other's lines and chain each other's streams. Games here run the same steps without
+ * the swap: while games run, System.out and System.err are replaced by streams that send each line to the game of the thread
+ * printing it, and the original streams come back once the last game ends.
+ * </p>
+ * <p>
+ * The games are driven through private <code>GameRunner</code> members, reached by reflection, as found in the gameengine runner
+ * 3.4.5 (<code>gamengine.version</code> in the pom, which also opens them with <code>--add-opens</code>). BatchRunnerTest fails
+ * when another runner version no longer has them.
+ * </p>
+ */
+public class BatchRunner {
+
+	// game buffers (referee stdout, referee stderr) of the current thread, inherited by the referee and agent threads
+	private static final InheritableThreadLocal<OutputStream[]> GAME_STREAMS = new InheritableThreadLocal<>();
+	// games being played, and the streams they replaced
+	private static int runningGames;
+	private static PrintStream originalOut;
+	private static PrintStream originalErr;
+
+	// private GameRunner members this runner relies on: the class fails to load, naming the member, if the runner
+	// version no longer has them (see BatchRunnerTest)
+	private static final Method INITIALIZE = method("initialize", Properties.class);
+	private static final Method RUN_AGENTS = method("runAgents");
+	private static final Method DESTROY_PLAYERS = method("destroyPlayers");
+	private static final Method ADD_PLAYER_IDS = method("addPlayerIds");
+	private static final Field REFEREE = field("referee", Agent.class);
+	private static final Field REFEREE_STDOUT = field("refereeStdout", OutputStream.class);
+	private static final Field REFEREE_STDERR = field("refereeStderr", OutputStream.class);
+
+	private final String[] agents;
+	private final int leagueLevel;
+	private final Properties gameParameters;
+
+	public BatchRunner(String agent1, String agent2, int leagueLevel, Properties gameParameters) {
+		this.agents = new String[] { agent1, agent2 };
+		this.leagueLevel = leagueLevel;
+		this.gameParameters = gameParameters;
+	}
+
+	public GameResult play(long seed) throws ClassNotFoundException {
+		MultiplayerGameRunner runner = new MultiplayerGameRunner();
+		runner.setLeagueLevel(leagueLevel);
+		runner.setSeed(seed);
+
+		Properties parameters = new Properties();
+		parameters.putAll(gameParameters);
+		parameters.setProperty("headless", "true");
+		runner.setGameParameters(parameters);
+
+		for (String agent : agents) {
+			if (agent.startsWith("java:")) {
+				runner.addAgent(Class.forName(agent.substring("java:".length())));
+			} else {
+				runner.addAgent(agent);
+			}
+		}
+		return simulate(runner);
+	}
+
+	// GameRunner.simulate() without the stream swap
+	private static GameResult simulate(GameRunner runner) {
+		enterGame();
+		try {
+			GAME_STREAMS.set(new OutputStream[] { (OutputStream) REFEREE_STDOUT.get(runner), (OutputStream) REFEREE_STDERR.get(runner) });
+			INITIALIZE.invoke(runner, new Properties());
+			RUN_AGENTS.invoke(runner);
+			((Agent) REFEREE.get(runner)).destroy();
+			DESTROY_PLAYERS.invoke(runner);
+			ADD_PLAYER_IDS.invoke(runner);
+			return runner.gameResult;
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			GAME_STREAMS.remove();
+			exitGame();
+		}
+	}
+
+	private static synchronized void enterGame() {
+		if (runningGames++ > 0)
+			return;
+		originalOut = System.out;
+		originalErr = System.err;
+		System.setOut(new PrintStream(new GameOutputStream(originalOut, 0), true));
+		System.setErr(new PrintStream(new GameOutputStream(originalErr, 1), true));
+	}
+
+	private static synchronized void exitGame() {
+		if (--runningGames > 0)
+			return;
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+		originalOut = null;
+		originalErr = null;
+	}
+
+	// writes to the current game's buffer, or to the original stream outside games
+	private static class GameOutputStream extends OutputStream {
+		private final PrintStream original;
+		private final int index;
+
+		GameOutputStream(PrintStream original, int index) {
+			this.original = original;
+			this.index = index;
+		}
+
+		private OutputStream target() {
+			OutputStream[] streams = GAME_STREAMS.get();
+			return streams != null ? streams[index] : original;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+	}
+
+	private static Method method(String name, Class<?>... parameterTypes) {
+		try {
+			Method method = GameRunner.class.getDeclaredMethod(name, parameterTypes);
+			method.setAccessible(true);
+			return method;
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("GameRunner." + name + " not found, check the runner version", e);
+		}
+	}
+
+	private static Field field(String name, Class<?> type) {
+		try {
+			Field field = GameRunner.class.getDeclaredField(name);
+			if (!type.isAssignableFrom(field.getType()))
+				throw new IllegalStateException("GameRunner." + name + " is a " + field.getType().getName() + ", not a " + type.getName()
+						+ ", check the runner version");
+			field.setAccessible(true);
+			return field;
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("GameRunner." + name + " not found, check the runner version", e);
+		}
+	}
+
+	static String formatResult(long seed, GameResult result) {
+		String turns = "";
+		String endReason = "";
+		if (result.metadata != null && !result.metadata.isEmpty()) {
+			JsonObject metadata = new JsonParser().parse(result.metadata).getAsJsonObject();
+			turns = metadata.has("turns") ? metadata.get("turns").getAsString() : "";
+			endReason = metadata.has("endReason") ? metadata.get("endReason").getAsString() : "";
+		}
+		if (result.failCause != null) {
+			endReason = "fail";
+		}
+		return String.format("%d\t%d\t%d\t%s\t%s", seed, result.scores.get(0), result.scores.get(1), turns, endReason);
+	}
+
+	public static void main(String[] args) {
+		// games route System.out and System.err to their own buffers: keep our own handle on the console
+		PrintStream console = System.err;
+
+		try {
+			Options options = new Options();
+
+			options.addOption("h", false, "Print the help")
+			       .addOption("p1", true, "Required. Player 1 command line, or java:<class name>.")
+			       .addOption("p2", true, "Required. Player 2 command line, or java:<class name>.")
+			       .addOption("e", true, "League level")
+			       .addOption("seed", true, "First seed (default 1)")
+			       .addOption("n", true, "Number of games, one per seed (default 100)")
+			       .addOption("t", true, "Number of games played at once (default: number of cores)")
+			       .addOption("o", true, "Required. Results file")
+			       .addOption("d", true, "Referee initial data, key=value pairs (e.g. \"width=20 height=20\")");
+
+			CommandLine cmd = new DefaultParser().parse(options, args);
+
+			if (cmd.hasOption("h") || !cmd.hasOption("p1") || !cmd.hasOption("p2") || !cmd.hasOption("o")) {
+				new HelpFormatter().printHelp(
+						"-p1 <player1> -p2 <player2> -o <results file> [-e <league> -seed <first seed> -n <games> -t <threads>]",
+						options);
+				System.exit(0);
+			}
+
+			int leagueLevel = Integer.parseInt(cmd.getOptionValue("e", "10"));
+			long firstSeed = Long.parseLong(cmd.getOptionValue("seed", "1"));
+			int count = Integer.parseInt(cmd.getOptionValue("n", "100"));
+			int threads = Integer.parseInt(cmd.getOptionValue("t", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+			Properties gameParameters = new Properties();
+			if (cmd.hasOption("d")) {
+				for (String pair : cmd.getOptionValue("d").trim().split("[\\s;]+")) {
+					String[] inputDataArr = pair.split("=", 2);
+					if (inputDataArr.length == 2)
+						gameParameters.setProperty(inputDataArr[0], inputDataArr[1]);
+				}
+			}
+
+			BatchRunner batch = new BatchRunner(cmd.getOptionValue("p1"), cmd.getOptionValue("p2"), leagueLevel, gameParameters);
+			long start = System.currentTimeMillis();
+			AtomicInteger failures = new AtomicInteger();
+
+			try (BufferedWriter results = Files.newBufferedWriter(Paths.get(cmd.getOptionValue("o")), StandardCharsets.UTF_8)) {
+				results.write("seed\tscore1\tscore2\tturns\tendReason\n");
+
+				ExecutorService pool = Executors.newFixedThreadPool(threads);
+				for (int i = 0; i < count; ++i) {
+					long seed = firstSeed + i;
+					pool.execute(() -> {
+						String line;
+						try {
+							line = formatResult(seed, batch.play(seed));
+						} catch (Throwable e) {
+							// errors too: a lost line would leave the seed out of the results and the error count
+							failures.incrementAndGet();
+							line = String.format("%d\t\t\t\terror: %s", seed, e);
+						}
+						// streamed in completion order
+						synchronized (results) {
+							try {
+								results.write(line);
+								results.write('\n');
+								results.flush();
+							} catch (IOException e) {
+								console.println(e.getMessage());
+							}
+						}
+					});
+				}
+				pool.shutdown();
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			}
+
+			console.println(String.format("%d games in %d ms, %d errors", count, System.currentTimeMillis() - start, failures.get()));
+		} catch (Exception e) {
+			console.println(e);
+			e.printStackTrace(console);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+}
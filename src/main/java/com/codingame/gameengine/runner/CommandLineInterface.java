@@ -32,7 +32,8 @@ public class CommandLineInterface {
 			       .addOption("s", false, "Server mode")
 			       .addOption("l", true, "File output for logs")
 			       .addOption("e", true, "League level")
-			       .addOption("d", true, "Referee initial data");
+			       .addOption("d", true, "Referee initial data, key=value pairs: seed, width and height (12 to 147, the viewer renders up to 24x24: larger maps need -headless)")
+			       .addOption("headless", false, "Run the rules only, without viewer data");
 
 			CommandLine cmd = new DefaultParser().parse(options, args);
 
@@ -55,15 +56,27 @@ public class CommandLineInterface {
 			}
 			runner.setLeagueLevel(leagueLevel);
 			
+			Properties gameParameters = new Properties();
 			if (cmd.hasOption("d")) {
 				//result.refereeInput = cmd.getOptionValue("d");
 				String inputData= cmd.getOptionValue("d");
-				String[] inputDataArr = inputData.split("=");
-				if ("seed".equals(inputDataArr[0])) {
-					Long seed= Long.parseLong(inputDataArr[1]);
-					runner.setSeed(seed);
+				// key=value pairs, e.g. "seed=42 width=64 height=64"
+				for (String pair : inputData.trim().split("[\\s;]+")) {
+					String[] inputDataArr = pair.split("=", 2);
+					if (inputDataArr.length != 2)
+						continue;
+					if ("seed".equals(inputDataArr[0])) {
+						Long seed= Long.parseLong(inputDataArr[1]);
+						runner.setSeed(seed);
+					} else {
+						gameParameters.setProperty(inputDataArr[0], inputDataArr[1]);
+					}
 				}
 			}
+			if (cmd.hasOption("headless"))
+				gameParameters.setProperty("headless", "true");
+			if (!gameParameters.isEmpty())
+				runner.setGameParameters(gameParameters);
 
 			int playerCount = 0;
 
@@ -0,0 +1,175 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+// The tokenizer against the split/trim/regex parsing it replaced, kept here as a reference.
+public class CommandTokenizerTest {
+    static private final Pattern MOVETRAIN_PATTERN = Pattern.compile("^(MOVE|TRAIN) ([0-9]*) ([0-9]*) ([0-9]*)$");
+    static private final Pattern MSG_PATTERN = Pattern.compile("^MSG (.*)$");
+    static private final Pattern BUILD_PATTERN = Pattern.compile("^BUILD (TOWER|MINE) ([0-9]*) ([0-9]*)$");
+
+    // output line, then the commands read from it
+    static private final String[][] CASES = {
+        {"WAIT", "WAIT"},
+        {"WAIT;WAIT", "WAIT", "WAIT"},
+        {"MOVE 1 2 3", "MOVE 1 2 3"},
+        {"TRAIN 3 11 0", "TRAIN 3 11 0"},
+        {"BUILD MINE 4 5", "BUILD MINE 4 5"},
+        {"BUILD TOWER 0 7", "BUILD TOWER 0 7"},
+        // trailing ';' are dropped, a leading one is an empty command
+        {"MOVE 1 2 3;", "MOVE 1 2 3"},
+        {"MOVE 1 2 3;;;", "MOVE 1 2 3"},
+        {";", },
+        {";;", },
+        {"", "UNRECOGNISED[]"},
+        {";MOVE 1 2 3", "UNRECOGNISED[]", "MOVE 1 2 3"},
+        {"WAIT;;WAIT", "WAIT", "UNRECOGNISED[]", "WAIT"},
+        // commands are trimmed, fields take single spaces
+        {"  MOVE 1 2 3  ;\tWAIT ", "MOVE 1 2 3", "WAIT"},
+        {"MOVE  1 2 3", "UNRECOGNISED[MOVE  1 2 3]"},
+        {"BUILD  MINE 1 1", "UNRECOGNISED[BUILD  MINE 1 1]"},
+        {"MOVE 1 2 3 ", "MOVE 1 2 3"},
+        // $ also matches before a final line terminator that trim keeps
+        {"MOVE 1 2 3\u2028", "MOVE 1 2 3"},
+        {"BUILD TOWER 1 2\u0085", "BUILD TOWER 1 2"},
+        {"MOVE 1 2 3\u2028\u2028", "UNRECOGNISED[MOVE 1 2 3\u2028\u2028]"},
+        {"MOVE 1 2\u2028 3", "UNRECOGNISED[MOVE 1 2\u2028 3]"},
+        {"MSG hi\u2029", "MSG[hi\u2029]"},
+        {"MSG a\u2028b", "UNRECOGNISED[MSG a\u2028b]"},
+        // numbers Integer.parseInt rejects are out of bounds, not unrecognised
+        {"MOVE 2147483647 0 0", "MOVE 2147483647 0 0"},
+        {"MOVE 1 2147483648 3", "BAD_NUMBER[MOVE 1 2147483648 3]"},
+        {"TRAIN 99999999999999999999 0 0", "BAD_NUMBER[TRAIN 99999999999999999999 0 0]"},
+        {"BUILD TOWER 1 99999999999", "BAD_NUMBER[BUILD TOWER 1 99999999999]"},
+        {"MOVE 1  3", "BAD_NUMBER[MOVE 1  3]"},
+        {"BUILD MINE  3", "BAD_NUMBER[BUILD MINE  3]"},
+        {"MOVE 007 0 0", "MOVE 7 0 0"},
+        // anything else is unrecognised
+        {"MOVE 1 2 -3", "UNRECOGNISED[MOVE 1 2 -3]"},
+        {"MOVE 1 2 3 4", "UNRECOGNISED[MOVE 1 2 3 4]"},
+        {"MOVE 1 2 3x", "UNRECOGNISED[MOVE 1 2 3x]"},
+        {"TRAIN 1 2", "UNRECOGNISED[TRAIN 1 2]"},
+        {"BUILD HQ 1 1", "UNRECOGNISED[BUILD HQ 1 1]"},
+        {"BUILD MINE 1 2 3", "UNRECOGNISED[BUILD MINE 1 2 3]"},
+        {"WAIT 1", "UNRECOGNISED[WAIT 1]"},
+        {"MOVE", "UNRECOGNISED[MOVE]"},
+        // keywords are case sensitive
+        {"wait", "UNRECOGNISED[wait]"},
+        {"move 1 2 3", "UNRECOGNISED[move 1 2 3]"},
+        {"Train 1 2 3", "UNRECOGNISED[Train 1 2 3]"},
+        {"build mine 1 1", "UNRECOGNISED[build mine 1 1]"},
+        {"BUILD tower 1 1", "UNRECOGNISED[BUILD tower 1 1]"},
+        {"msg hello", "UNRECOGNISED[msg hello]"},
+        // MSG runs up to the next ';', the rest is another command
+        {"MSG hello", "MSG[hello]"},
+        {"MSG  spaced out ", "MSG[ spaced out]"},
+        {"MSG ", "UNRECOGNISED[MSG]"},
+        {"MSG hello;world", "MSG[hello]", "UNRECOGNISED[world]"},
+        {"MOVE 1 2 3;MSG a; b;WAIT", "MOVE 1 2 3", "MSG[a]", "UNRECOGNISED[b]", "WAIT"},
+        {"MSG a;MSG b", "MSG[a]", "MSG[b]"},
+    };
+
+    static private List<String> tokenize(CommandTokenizer tokenizer, String line) {
+        List<String> commands = new ArrayList<>();
+        tokenizer.reset(line);
+        while (tokenizer.next()) {
+            switch (tokenizer.getKind()) {
+                case CommandTokenizer.WAIT:
+                    commands.add("WAIT");
+                    break;
+                case CommandTokenizer.MSG:
+                    commands.add("MSG[" + tokenizer.getMessage() + "]");
+                    break;
+                case CommandTokenizer.MOVE:
+                    commands.add("MOVE " + tokenizer.getIdOrLevel() + " " + tokenizer.getX() + " " + tokenizer.getY());
+                    break;
+                case CommandTokenizer.TRAIN:
+                    commands.add("TRAIN " + tokenizer.getIdOrLevel() + " " + tokenizer.getX() + " " + tokenizer.getY());
+                    break;
+                case CommandTokenizer.BUILD:
+                    commands.add("BUILD " + tokenizer.getBuildType() + " " + tokenizer.getX() + " " + tokenizer.getY());
+                    break;
+                case CommandTokenizer.BAD_NUMBER:
+                    commands.add("BAD_NUMBER[" + tokenizer.getCommand() + "]");
+                    break;
+                default:
+                    commands.add("UNRECOGNISED[" + tokenizer.getCommand() + "]");
+            }
+        }
+        return commands;
+    }
+
+    // reference: the Referee's original readInput parsing
+    static private List<String> reference(String line) {
+        List<String> commands = new ArrayList<>();
+        for (String actionStr : line.split(";")) {
+            actionStr = actionStr.trim();
+            if (actionStr.equals("WAIT")) {
+                commands.add("WAIT");
+                continue;
+            }
+            if (MSG_PATTERN.matcher(actionStr).find()) {
+                commands.add("MSG[" + actionStr.substring(4) + "]");
+                continue;
+            }
+            Matcher moveTrain = MOVETRAIN_PATTERN.matcher(actionStr);
+            Matcher build = BUILD_PATTERN.matcher(actionStr);
+            try {
+                if (moveTrain.find()) {
+                    commands.add(moveTrain.group(1) + " " + Integer.parseInt(moveTrain.group(2)) + " " + Integer.parseInt(moveTrain.group(3))
+                        + " " + Integer.parseInt(moveTrain.group(4)));
+                } else if (build.find()) {
+                    commands.add("BUILD " + Building.convertType(build.group(1)) + " " + Integer.parseInt(build.group(2))
+                        + " " + Integer.parseInt(build.group(3)));
+                } else {
+                    commands.add("UNRECOGNISED[" + actionStr + "]");
+                }
+            } catch (NumberFormatException e) {
+                commands.add("BAD_NUMBER[" + actionStr + "]");
+            }
+        }
+        return commands;
+    }
+
+    @Test
+    public void edgeCases() {
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        for (String[] testCase : CASES) {
+            List<String> expected = Arrays.asList(testCase).subList(1, testCase.length);
+            assertEquals(testCase[0], expected, tokenize(tokenizer, testCase[0]));
+            assertEquals("reference " + testCase[0], expected, reference(testCase[0]));
+        }
+    }
+
+    @Test
+    public void randomLinesMatchTheReference() {
+        String[] pieces = {"MOVE", "TRAIN", "BUILD", "MINE", "TOWER", "HQ", "MSG", "WAIT", "move", " ", " ", " ", "  ", ";", ";",
+            "0", "1", "12", "2147483647", "2147483648", "99999999999", "-", "x", "\t", "\n", "\r", "\r\n", "\u0085", "\u2028", "\u2029"};
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        Random random = new Random(1);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 200000; ++i) {
+            line.setLength(0);
+            for (int n = random.nextInt(12); n >= 0; --n) {
+                // mostly well formed commands, so the number and terminator rules get exercised
+                if (random.nextInt(3) == 0)
+                    line.append(pieces[random.nextInt(pieces.length)]);
+                else
+                    line.append(pieces[random.nextInt(8)]).append(' ').append(pieces[15 + random.nextInt(6)])
+                        .append(random.nextBoolean() ? " " : pieces[random.nextInt(pieces.length)]).append(pieces[15 + random.nextInt(6)]);
+            }
+            String text = line.toString();
+            assertEquals(text, reference(text), tokenize(tokenizer, text));
+        }
+    }
+}
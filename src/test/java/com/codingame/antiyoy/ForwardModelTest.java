@@ -0,0 +1,351 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+// ForwardModel against GameState played the way the Referee plays it, on random games of fixed seeds.
+public class ForwardModelTest {
+    static private final long[] SEEDS = {1, 2, 3, 42, 1337};
+    // chance that an action is drawn among the legal ones rather than at random
+    static private final double LEGAL_RATE = 0.8;
+
+    static private GameState newGame(long seed, LEAGUE league) throws Exception {
+        GameState gameState = new GameState(seed, league);
+        gameState.generateMap(league);
+        gameState.createHQs(PLAYER_COUNT);
+        return gameState;
+    }
+
+    // the Referee's checks and calls for one action, false if it would reject it
+    static private boolean applyOnGameState(GameState gameState, int playerId, long action) {
+        GameContext context = gameState.getContext();
+        int targetIdx = ForwardModel.getActionTarget(action);
+        Cell target = gameState.getCell(targetIdx);
+        if (target.getOwner() == VOID)
+            return false;
+
+        switch (ForwardModel.getActionType(action)) {
+            case ForwardModel.MOVE: {
+                Unit unit = gameState.getCell(ForwardModel.getActionSource(action)).getUnit();
+                if (unit == null || unit.getOwner() != playerId || !unit.canPlay())
+                    return false;
+                int distance = Math.abs(unit.getX() - target.getX()) + Math.abs(unit.getY() - target.getY());
+                if (!target.isCapturable(playerId, unit.getLevel()) && distance == 1)
+                    return false;
+                Cell nextCell = gameState.getNextCell(unit, target);
+                if (nextCell == unit.getCell())
+                    return false;
+                gameState.moveUnit(unit, nextCell);
+                return true;
+            }
+            case ForwardModel.TRAIN: {
+                int level = ForwardModel.getActionArgument(action);
+                if (level <= 0 || level > context.getMaxLevel() || (context.getLeague() == LEAGUE.WOOD3 && level != 1))
+                    return false;
+                if (!target.isPlayable(playerId) || gameState.getGold(playerId) < UNIT_COST[level] || !target.isCapturable(playerId, level))
+                    return false;
+                gameState.addUnit(new Unit(target, playerId, level, context.nextUnitId()));
+                return true;
+            }
+            default: {
+                BUILDING_TYPE type = BUILDING_TYPE.values()[ForwardModel.getActionArgument(action)];
+                LEAGUE league = context.getLeague();
+                if (league == LEAGUE.WOOD3 || league == LEAGUE.WOOD2 || type == BUILDING_TYPE.HQ)
+                    return false;
+                if (!target.isPlayable(playerId) || !target.isFree() || target.getOwner() != playerId)
+                    return false;
+                if (gameState.getGold(playerId) < gameState.getBuildingCost(type, playerId))
+                    return false;
+                if (type == BUILDING_TYPE.MINE ? !target.isMineSpot() : target.isMineSpot())
+                    return false;
+                gameState.addBuilding(new Building(target, playerId, type));
+                return true;
+            }
+        }
+    }
+
+    static private int getLoser(GameState gameState) {
+        for (Building HQ : gameState.getHQs()) {
+            if (HQ.getCell().getOwner() != HQ.getOwner())
+                return HQ.getOwner();
+        }
+        return -1;
+    }
+
+    // a legal action most of the time, otherwise any action the Referee could receive
+    static private long drawAction(Random random, long[] legal, int legalCount, int size) {
+        if (legalCount > 0 && random.nextDouble() < LEGAL_RATE)
+            return legal[random.nextInt(legalCount)];
+        int target = random.nextInt(size);
+        switch (random.nextInt(3)) {
+            case 0:
+                return ForwardModel.move(random.nextInt(size), target);
+            case 1:
+                return ForwardModel.train(random.nextInt(MAX_LEVEL + 2), target);
+            default:
+                return ForwardModel.build(random.nextBoolean() ? BUILDING_TYPE.MINE : BUILDING_TYPE.TOWER, target);
+        }
+    }
+
+    static private void assertSameState(String message, GameState gameState, ForwardModel model) {
+        for (int idx = 0; idx < model.getSize(); ++idx) {
+            Cell cell = gameState.getCell(idx);
+            Unit unit = cell.getUnit();
+            BUILDING_TYPE building = cell.getBuilding() == null ? null : cell.getBuilding().getType();
+            // messages only for the cells that differ
+            if (cell.getOwner() == model.getOwner(idx) && cell.isActive() == model.isActive(idx) && building == model.getBuilding(idx)
+                    && (unit == null ? model.getUnitLevel(idx) == 0 : unit.getLevel() == model.getUnitLevel(idx)
+                        && unit.getId() == model.getUnitId(idx) && unit.canPlay() == model.canUnitMove(idx)))
+                continue;
+            String where = message + " cell " + cell.getX() + " " + cell.getY();
+            assertEquals(where + " owner", cell.getOwner(), model.getOwner(idx));
+            assertEquals(where + " active", cell.isActive(), model.isActive(idx));
+            assertEquals(where + " building", building, model.getBuilding(idx));
+            assertEquals(where + " unit level", unit == null ? 0 : unit.getLevel(), model.getUnitLevel(idx));
+            if (unit != null) {
+                assertEquals(where + " unit id", unit.getId(), model.getUnitId(idx));
+                assertEquals(where + " unit can move", unit.canPlay(), model.canUnitMove(idx));
+            }
+        }
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            assertEquals(message + " gold " + playerId, gameState.getGold(playerId), model.getGold(playerId));
+            // GameState.getIncome is the figure sent with the turn input, taken before a negative gold wipeout
+            assertEquals(message + " income " + playerId, gameState.getBoard().getIncome(playerId), model.getIncome(playerId));
+            assertEquals(message + " mine cost " + playerId, gameState.getBuildingCost(BUILDING_TYPE.MINE, playerId),
+                model.getBuildingCost(BUILDING_TYPE.MINE, playerId));
+        }
+        assertEquals(message + " loser", getLoser(gameState), model.getLoser());
+        assertEquals(message + " hash", gameState.getHash(), model.getHash());
+        assertTotals(message, model);
+    }
+
+    static private int nextUnitId(ForwardModel model) {
+        try {
+            Field field = ForwardModel.class.getDeclaredField("nextUnitId");
+            field.setAccessible(true);
+            return field.getInt(model);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // running totals and unit index against a scan of the cells
+    static private void assertTotals(String message, ForwardModel model) {
+        int[] cellCounts = new int[PLAYER_COUNT];
+        int[] scores = new int[PLAYER_COUNT];
+        int units = 0;
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId)
+            scores[playerId] = model.getGold(playerId);
+        for (int idx = 0; idx < model.getSize(); ++idx) {
+            int owner = model.getOwner(idx);
+            if (owner < 0)
+                continue;
+            if (model.isActive(idx))
+                ++cellCounts[owner];
+            if (model.getUnitLevel(idx) > 0) {
+                scores[owner] += UNIT_COST[model.getUnitLevel(idx)];
+                assertEquals(message + " unit " + model.getUnitId(idx), idx, model.getUnitCell(model.getUnitId(idx)));
+                ++units;
+            }
+        }
+        for (int id = -1; id <= nextUnitId(model); ++id) {
+            if (model.getUnitCell(id) >= 0)
+                --units;
+        }
+        assertEquals(message + " dead units indexed", 0, units);
+        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+            assertEquals(message + " cell count " + playerId, cellCounts[playerId], model.getCellCount(playerId));
+            assertEquals(message + " score " + playerId, scores[playerId], model.getScore(playerId));
+        }
+    }
+
+    static private void assertHash(String message, ForwardModel model) {
+        assertEquals(message + " hash", model.computeHash(), model.getHash());
+        assertTotals(message, model);
+    }
+
+    // every field but the shared topology and the journal, arrays copied,
+    // the unit index up to the next id: the room it grew by is not undone
+    static private Map<String, Object> snapshot(ForwardModel model) throws Exception {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (Field field : ForwardModel.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().equals("topology") || field.getName().startsWith("journal"))
+                continue;
+            field.setAccessible(true);
+            Object value = field.get(model);
+            if (field.getName().equals("unitCells")) {
+                value = Arrays.copyOf((int[]) value, nextUnitId(model));
+            } else if (value != null && value.getClass().isArray()) {
+                Object copy = Array.newInstance(value.getClass().getComponentType(), Array.getLength(value));
+                System.arraycopy(value, 0, copy, 0, Array.getLength(value));
+                value = copy;
+            }
+            fields.put(field.getName(), value);
+        }
+        return fields;
+    }
+
+    static private void assertSameFields(String message, Map<String, Object> expected, Map<String, Object> actual) {
+        assertEquals(message, expected.keySet(), actual.keySet());
+        for (String name : expected.keySet())
+            assertTrue(message + " " + name, Arrays.deepEquals(new Object[] {expected.get(name)}, new Object[] {actual.get(name)}));
+    }
+
+    @Test
+    public void actionsMatchGameState() throws Exception {
+        for (LEAGUE league : LEAGUE.values()) {
+            for (long seed : SEEDS) {
+                GameState gameState = newGame(seed, league);
+                ForwardModel model = new ForwardModel(gameState);
+                Random random = new Random(seed);
+                long[] legal = new long[gameState.getMaxActionCount()];
+                long[] turnActions = new long[24];
+                String game = league + " seed " + seed;
+
+                assertSameState(game + " start", gameState, model);
+                model.nextPlayer();
+                for (int turn = 1; turn <= MAX_TURNS && !model.isGameOver(); ++turn) {
+                    for (int playerId = 0; playerId < PLAYER_COUNT && !model.isGameOver(); ++playerId) {
+                        String where = game + " turn " + turn + " player " + playerId;
+                        gameState.initTurn(playerId);
+                        assertEquals(where, playerId, model.getCurrentPlayer());
+                        assertEquals(where, turn, model.getTurn());
+                        assertSameState(where + " init", gameState, model);
+                        ForwardModel turnStart = model.copy();
+
+                        int actionCount = random.nextInt(turnActions.length);
+                        int played = 0;
+                        for (int i = 0; i < actionCount && !model.isGameOver(); ++i) {
+                            int legalCount = gameState.getLegalActions(playerId, legal);
+                            long action = drawAction(random, legal, legalCount, model.getSize());
+                            turnActions[played++] = action;
+                            String step = where + " action " + i + " " + Long.toHexString(action);
+                            assertEquals(step, applyOnGameState(gameState, playerId, action), model.apply(action));
+                            assertSameState(step, gameState, model);
+                        }
+
+                        // the same actions as one turn
+                        ForwardModel turnEnd = turnStart.playTurn(turnActions, played);
+                        model.nextPlayer();
+                        assertSameFields(where + " applyTurn", snapshot(model), snapshot(turnEnd));
+                    }
+                }
+                // HQ captured or turn limit
+                assertTrue(game, model.isGameOver());
+            }
+        }
+    }
+
+    @Test
+    public void rollbackRestoresEveryField() throws Exception {
+        for (LEAGUE league : LEAGUE.values()) {
+            for (long seed : SEEDS) {
+                GameState gameState = newGame(seed, league);
+                ForwardModel model = new ForwardModel(gameState);
+                Random random = new Random(seed);
+                long[] legal = new long[model.getMaxActionCount()];
+                String game = league + " seed " + seed;
+                model.nextPlayer();
+
+                for (int ply = 0; ply < 2 * MAX_TURNS && !model.isGameOver(); ++ply) {
+                    String where = game + " ply " + ply;
+
+                    // nested marks: each rollback restores its own mark
+                    int outer = model.mark();
+                    Map<String, Object> outerFields = snapshot(model);
+                    for (int depth = 0; depth < 3 && !model.isGameOver(); ++depth) {
+                        for (int i = random.nextInt(8); i > 0 && !model.isGameOver(); --i)
+                            model.apply(drawAction(random, legal, model.getLegalActions(legal), model.getSize()));
+                        int inner = model.mark();
+                        Map<String, Object> innerFields = snapshot(model);
+                        model.nextPlayer();
+                        for (int i = random.nextInt(8); i > 0 && !model.isGameOver(); --i)
+                            model.apply(drawAction(random, legal, model.getLegalActions(legal), model.getSize()));
+                        model.rollback(inner);
+                        assertSameFields(where + " depth " + depth, innerFields, snapshot(model));
+                        assertHash(where + " depth " + depth, model);
+                    }
+                    model.rollback(outer);
+                    assertSameFields(where, outerFields, snapshot(model));
+                    assertHash(where, model);
+
+                    // then move on without recording
+                    model.clearJournal();
+                    for (int i = random.nextInt(8); i > 0 && !model.isGameOver(); --i)
+                        model.apply(drawAction(random, legal, model.getLegalActions(legal), model.getSize()));
+                    model.nextPlayer();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void incrementalHashMatchesRecompute() throws Exception {
+        for (LEAGUE league : LEAGUE.values()) {
+            for (long seed : SEEDS) {
+                GameState gameState = newGame(seed, league);
+                ForwardModel model = new ForwardModel(gameState);
+                Random random = new Random(seed);
+                long[] legal = new long[model.getMaxActionCount()];
+                String game = league + " seed " + seed;
+                assertHash(game + " start", model);
+
+                for (int ply = 0; model.nextPlayer(); ++ply) {
+                    assertHash(game + " ply " + ply, model);
+                    for (int i = random.nextInt(16); i > 0 && !model.isGameOver(); --i) {
+                        long action = drawAction(random, legal, model.getLegalActions(legal), model.getSize());
+                        model.apply(action);
+                        assertHash(game + " ply " + ply + " action " + Long.toHexString(action), model);
+                    }
+                }
+                assertHash(game + " end", model);
+            }
+        }
+    }
+
+    @Test
+    public void legalActionsMatchGameState() throws Exception {
+        for (LEAGUE league : LEAGUE.values()) {
+            for (long seed : SEEDS) {
+                GameState gameState = newGame(seed, league);
+                ForwardModel model = new ForwardModel(gameState);
+                Random random = new Random(seed);
+                long[] legal = new long[gameState.getMaxActionCount()];
+                long[] modelLegal = new long[model.getMaxActionCount()];
+
+                for (int ply = 0; ply < 2 * MAX_TURNS && model.nextPlayer(); ++ply) {
+                    int playerId = model.getCurrentPlayer();
+                    gameState.initTurn(playerId);
+                    for (int i = random.nextInt(16); i >= 0 && !model.isGameOver(); --i) {
+                        int legalCount = gameState.getLegalActions(playerId, legal);
+                        int modelCount = model.getLegalActions(modelLegal);
+                        long[] expected = Arrays.copyOf(legal, legalCount);
+                        long[] actual = Arrays.copyOf(modelLegal, modelCount);
+                        Arrays.sort(expected);
+                        Arrays.sort(actual);
+                        assertArrayEquals(league + " seed " + seed + " ply " + ply, expected, actual);
+
+                        // every legal action is accepted
+                        if (legalCount > 0) {
+                            long action = legal[random.nextInt(legalCount)];
+                            assertTrue(Long.toHexString(action), applyOnGameState(gameState, playerId, action));
+                            assertTrue(Long.toHexString(action), model.apply(action));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+// The summed-area-table automaton and the iterative component labelling against
+// the recursive list-based originals they replaced, kept here as references.
+public class MapGeneratorTest {
+    static private final int[][] SIZES = {{12, 12}, {17, 13}, {13, 17}, {32, 32}};
+    static private final long[] SEEDS = {1, 2, 3, 42, 1337, 12345, -7, 987654321};
+
+    // reference: original automaton step, out of bounds = NEUTRAL
+    static private int[][] referenceUpdate(int[][] owners) {
+        int width = owners.length;
+        int height = owners[0].length;
+        int[][] next = new int[width][height];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                int nbNeutral = 0;
+                for (int ix = -1; ix < 2; ++ix) {
+                    for (int iy = -1; iy < 2; ++iy) {
+                        int nx = x + ix;
+                        int ny = y + iy;
+                        if (nx < 0 || nx >= width || ny < 0 || ny >= height || owners[nx][ny] == NEUTRAL)
+                            ++nbNeutral;
+                    }
+                }
+                next[x][y] = nbNeutral >= MAPGENERATOR_T ? NEUTRAL : VOID;
+            }
+        }
+        return next;
+    }
+
+    // reference: original recursive depth first search
+    static private void referenceDfs(int x, int y, List<Integer> component, int[][] visited) {
+        int width = visited.length;
+        component.add(x + width * y);
+        visited[x][y] = 2;
+        int[][] steps = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+        for (int[] step : steps) {
+            int nx = x + step[0];
+            int ny = y + step[1];
+            if (nx >= 0 && nx < width && ny >= 0 && ny < visited[0].length && visited[nx][ny] == NEUTRAL)
+                referenceDfs(nx, ny, component, visited);
+        }
+    }
+
+    static private List<List<Integer>> referenceComponents(int[][] owners) {
+        int width = owners.length;
+        int height = owners[0].length;
+        int[][] visited = new int[width][];
+        for (int x = 0; x < width; ++x)
+            visited[x] = owners[x].clone();
+
+        List<List<Integer>> components = new ArrayList<>();
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                if (visited[x][y] == NEUTRAL) {
+                    List<Integer> component = new ArrayList<>();
+                    referenceDfs(x, y, component, visited);
+                    components.add(component);
+                }
+            }
+        }
+        return components;
+    }
+
+    // reference: original generator up to the neighbours, on a square map
+    static private void referenceLayout(long seed, LEAGUE league, int size, int nbMineSpots, int[][] owners, boolean[][] mineSpots) {
+        Random generator = new Random(seed);
+        for (int x = 0; x < size; ++x)
+            for (int y = 0; y < size; ++y)
+                owners[x][y] = generator.nextFloat() > MAPGENERATOR_R ? NEUTRAL : VOID;
+        owners[0][0] = owners[1][0] = owners[0][1] = owners[1][1] = NEUTRAL;
+
+        boolean withMineSpots = league == LEAGUE.WOOD1 || league == LEAGUE.BRONZE;
+        if (withMineSpots) {
+            mineSpots[1][0] = true;
+            mineSpots[size - 2][size - 1] = true;
+        }
+
+        int[][] current = owners;
+        for (int i = 0; i < MAPGENERATOR_ITERATIONSAUTOMATA; ++i)
+            current = referenceUpdate(current);
+        for (int x = 0; x < size; ++x)
+            for (int y = 0; y < size; ++y)
+                owners[x][y] = ((current[x][y] + 2 + 1) % 2) - 2;
+
+        for (int x = 0; x < size; x++)
+            for (int y = 0; y < x + 1; y++)
+                owners[size - 1 - x][size - 1 - y] = owners[x][y];
+        for (int i = 0; i < 3; ++i) {
+            for (int j = 0; j < 3; ++j) {
+                owners[i][j] = NEUTRAL;
+                owners[size - 1 - i][size - 1 - j] = NEUTRAL;
+            }
+        }
+
+        List<List<Integer>> components = referenceComponents(owners);
+        if (components.size() > 1) {
+            int[] randomPoints = new int[components.size()];
+            for (int n = 0; n < components.size(); n++)
+                randomPoints[n] = components.get(n).get(generator.nextInt(components.get(n).size()));
+            for (int i = 0; i < randomPoints.length; ++i) {
+                for (int j = i + 1; j < randomPoints.length; ++j) {
+                    int node1X = randomPoints[i] % size;
+                    int node1Y = randomPoints[i] / size;
+                    int node2X = randomPoints[j] % size;
+                    int node2Y = randomPoints[j] / size;
+                    for (int x = Math.min(node1X, node2X); x <= Math.max(node1X, node2X); ++x) {
+                        owners[x][node2Y] = NEUTRAL;
+                        owners[size - 1 - x][size - 1 - node2Y] = NEUTRAL;
+                    }
+                    for (int y = Math.min(node1Y, node2Y); y <= Math.max(node1Y, node2Y); ++y) {
+                        owners[node1X][y] = NEUTRAL;
+                        owners[size - 1 - node1X][size - 1 - y] = NEUTRAL;
+                    }
+                }
+            }
+        }
+
+        if (withMineSpots) {
+            for (int i = 0; i < Math.round(nbMineSpots / 2) - 1; i++) {
+                int randomX = generator.nextInt(size);
+                int randomY = generator.nextInt(size);
+                while (owners[randomX][randomY] == VOID || mineSpots[randomX][randomY] || randomX + randomY == 0
+                        || randomX + randomY == 2 * size - 2 || randomX == 0 && randomY == 1 || randomX == size - 1 && randomY == size - 2) {
+                    randomX = generator.nextInt(size);
+                    randomY = generator.nextInt(size);
+                }
+                mineSpots[randomX][randomY] = true;
+                mineSpots[size - 1 - randomX][size - 1 - randomY] = true;
+            }
+        }
+    }
+
+    static private int[][] randomOwners(Random random, int width, int height) {
+        int[][] owners = new int[width][height];
+        for (int x = 0; x < width; ++x)
+            for (int y = 0; y < height; ++y)
+                owners[x][y] = random.nextFloat() > MAPGENERATOR_R ? NEUTRAL : VOID;
+        return owners;
+    }
+
+    static private GameState withOwners(int[][] owners) {
+        GameState gameState = new GameState(0, LEAGUE.BRONZE, owners.length, owners[0].length);
+        for (int x = 0; x < owners.length; ++x)
+            for (int y = 0; y < owners[0].length; ++y)
+                gameState.getCell(x, y).setOwner(owners[x][y]);
+        return gameState;
+    }
+
+    static private int[][] owners(GameState gameState) {
+        int[][] owners = new int[gameState.getWidth()][gameState.getHeight()];
+        for (int x = 0; x < gameState.getWidth(); ++x)
+            for (int y = 0; y < gameState.getHeight(); ++y)
+                owners[x][y] = gameState.getCell(x, y).getOwner();
+        return owners;
+    }
+
+    @Test
+    public void automatonMatchesTheReference() {
+        for (int[] size : SIZES) {
+            for (long seed : SEEDS) {
+                int[][] expected = randomOwners(new Random(seed), size[0], size[1]);
+                GameState gameState = withOwners(expected);
+                for (int i = 0; i < MAPGENERATOR_ITERATIONSAUTOMATA; ++i) {
+                    gameState.updateMap();
+                    expected = referenceUpdate(expected);
+                    assertArrayEquals(size[0] + "x" + size[1] + " seed " + seed + " step " + i, expected, owners(gameState));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void componentsMatchTheReference() {
+        for (int[] size : SIZES) {
+            for (long seed : SEEDS) {
+                int[][] owners = randomOwners(new Random(seed), size[0], size[1]);
+                List<List<Integer>> expected = referenceComponents(owners);
+                int[][] actual = withOwners(owners).findConnectedComponents();
+
+                String message = size[0] + "x" + size[1] + " seed " + seed;
+                assertEquals(message, expected.size(), actual.length);
+                for (int n = 0; n < actual.length; ++n) {
+                    int[] component = expected.get(n).stream().mapToInt(Integer::intValue).toArray();
+                    assertArrayEquals(message + " component " + n, component, actual[n]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void layoutMatchesTheReference() {
+        for (int size : new int[] {MAP_WIDTH, 20}) {
+            for (LEAGUE league : LEAGUE.values()) {
+                for (long seed : SEEDS) {
+                    GameState gameState = new GameState(seed, league, size, size);
+                    gameState.generateLayout(league);
+
+                    int[][] owners = new int[size][size];
+                    boolean[][] mineSpots = new boolean[size][size];
+                    referenceLayout(seed, league, size, gameState.getNbMineSpots(), owners, mineSpots);
+
+                    String message = size + "x" + size + " " + league + " seed " + seed;
+                    assertArrayEquals(message, owners, owners(gameState));
+                    for (int x = 0; x < size; ++x)
+                        for (int y = 0; y < size; ++y)
+                            assertEquals(message + " mine spot " + x + " " + y, mineSpots[x][y], gameState.getCell(x, y).isMineSpot());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MapPackTest {
+    static private final long[] SEEDS = {1, 2, 42, 12345, -7, 5_000_000_000L};
+    static private final long MISSING_SEED = 43;
+    // CRC32 of the 12x12 SEEDS maps, without and with mine spots: packs written before a generator change
+    // no longer match it, regenerate them along with these values
+    static private final long LAYOUT_CHECKSUM = 0xa4f25400L;
+    static private final long MINE_LAYOUT_CHECKSUM = 0x9abd2e32L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a map as packed: neighbour bits, VOID bit, mine spot bit
+    static private byte[] encode(GameState gameState) {
+        int size = gameState.getWidth() * gameState.getHeight();
+        byte[] cells = new byte[size];
+        for (int idx = 0; idx < size; ++idx) {
+            Cell cell = gameState.getCell(idx);
+            int value = 0;
+            for (int direction = 0; direction < 4; ++direction) {
+                if (cell.getNeighbour(direction) != null)
+                    value |= 1 << direction;
+            }
+            if (cell.getOwner() == VOID)
+                value |= MapPack.VOID_BIT;
+            if (cell.isMineSpot())
+                value |= MapPack.MINE_SPOT_BIT;
+            cells[idx] = (byte) value;
+        }
+        return cells;
+    }
+
+    static private byte[] generated(long seed, LEAGUE league, int width, int height) {
+        GameState gameState = new GameState(seed, league, width, height);
+        gameState.generateLayout(league);
+        return encode(gameState);
+    }
+
+    static private byte[] loaded(long seed, LEAGUE league, int width, int height) {
+        GameState gameState = new GameState(seed, league, width, height);
+        gameState.generateMap(league);
+        return encode(gameState);
+    }
+
+    static private boolean hasMineSpots(LEAGUE league) {
+        return league == LEAGUE.WOOD1 || league == LEAGUE.BRONZE;
+    }
+
+    private Path pack(int width, int height) throws Exception {
+        Path path = folder.newFile(width + "x" + height + ".pack").toPath();
+        MapPack.generate(path, width, height, SEEDS);
+        return path;
+    }
+
+    private void checkRecords(int width, int height) throws Exception {
+        MapPack pack = MapPack.open(pack(width, height));
+        assertEquals(width, pack.getWidth());
+        assertEquals(height, pack.getHeight());
+        assertEquals(SEEDS.length, pack.getCount());
+
+        for (LEAGUE league : LEAGUE.values()) {
+            // one record serves every league, without its mine spots outside the mine leagues
+            int mask = hasMineSpots(league) ? 0xFF : ~MapPack.MINE_SPOT_BIT & 0xFF;
+            for (long seed : SEEDS) {
+                int record = pack.find(seed);
+                assertTrue("seed " + seed, record >= 0);
+                byte[] expected = generated(seed, league, width, height);
+                byte[] actual = new byte[width * height];
+                for (int idx = 0; idx < actual.length; ++idx)
+                    actual[idx] = (byte) (pack.getCell(record, idx) & mask);
+                assertArrayEquals(league + " seed " + seed, expected, actual);
+            }
+        }
+        assertEquals(-1, pack.find(MISSING_SEED));
+    }
+
+    @Test
+    public void generatorIsUnchanged() {
+        for (LEAGUE league : LEAGUE.values()) {
+            CRC32 checksum = new CRC32();
+            for (long seed : SEEDS)
+                checksum.update(generated(seed, league, MAP_WIDTH, MAP_HEIGHT));
+            assertEquals(league.toString(), hasMineSpots(league) ? MINE_LAYOUT_CHECKSUM : LAYOUT_CHECKSUM, checksum.getValue());
+        }
+    }
+
+    @Test
+    public void recordsMatchTheGenerator() throws Exception {
+        checkRecords(MAP_WIDTH, MAP_HEIGHT);
+    }
+
+    @Test
+    public void recordsMatchTheGeneratorOnRectangularMaps() throws Exception {
+        checkRecords(17, 13);
+    }
+
+    // runs with the pack property set to path
+    static private void withPackProperty(String path, Runnable test) {
+        String previous = System.getProperty(MapPack.PACK_PROPERTY);
+        System.setProperty(MapPack.PACK_PROPERTY, path);
+        try {
+            test.run();
+        } finally {
+            if (previous == null)
+                System.clearProperty(MapPack.PACK_PROPERTY);
+            else
+                System.setProperty(MapPack.PACK_PROPERTY, previous);
+        }
+    }
+
+    @Test
+    public void gamesStartingAtOnceShareOnePack() throws Exception {
+        String path = pack(MAP_WIDTH, MAP_HEIGHT).toString();
+        withPackProperty(path, () -> {
+            List<MapPack> packs = IntStream.range(0, 64).parallel().mapToObj(i -> MapPack.getConfigured()).collect(Collectors.toList());
+            for (MapPack pack : packs)
+                assertSame(packs.get(0), pack);
+        });
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void unreadablePackFailsTheGame() throws Exception {
+        Path path = folder.newFile("broken.pack").toPath();
+        Files.write(path, new byte[] {1, 2, 3});
+        withPackProperty(path.toString(), () -> loaded(SEEDS[0], LEAGUE.BRONZE, MAP_WIDTH, MAP_HEIGHT));
+    }
+
+    @Test
+    public void generateMapLoadsPackedSeedsAndGeneratesTheOthers() throws Exception {
+        withPackProperty(pack(MAP_WIDTH, MAP_HEIGHT).toString(), () -> {
+            for (LEAGUE league : LEAGUE.values()) {
+                for (long seed : SEEDS)
+                    assertArrayEquals(league + " seed " + seed, generated(seed, league, MAP_WIDTH, MAP_HEIGHT), loaded(seed, league, MAP_WIDTH, MAP_HEIGHT));
+                assertArrayEquals(league + " missing seed", generated(MISSING_SEED, league, MAP_WIDTH, MAP_HEIGHT), loaded(MISSING_SEED, league, MAP_WIDTH, MAP_HEIGHT));
+                // a pack of another size is ignored
+                assertArrayEquals(league + " 17x13", generated(SEEDS[0], league, 17, 13), loaded(SEEDS[0], league, 17, 13));
+            }
+        });
+    }
+}
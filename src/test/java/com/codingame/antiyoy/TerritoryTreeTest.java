@@ -0,0 +1,138 @@
+package com.codingame.antiyoy;
+
+import static com.codingame.antiyoy.Constants.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Cut off queries against "take the cell, flood from the HQ" on random territories of generated maps.
+public class TerritoryTreeTest {
+    static private final long[] SEEDS = {1, 2, 3, 42, 1337};
+    static private final int[][] SIZES = {{12, 12}, {17, 13}, {24, 24}};
+    static private final double[] OWNED_RATES = {0.5, 0.7, 0.9};
+    static private final int ROUNDS = 4;
+
+    // active owned cells connected to the HQ without going through removed, as a mask over cell indices
+    static private boolean[] flood(Board board, int playerId, int hq, int removed) {
+        boolean[] reached = new boolean[board.getSize()];
+        if (hq == removed || !board.isActiveOwned(playerId, hq))
+            return reached;
+        int[] queue = new int[board.getSize()];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = hq;
+        reached[hq] = true;
+        while (head < tail) {
+            int idx = queue[head++];
+            int x = board.getX(idx);
+            int y = board.getY(idx);
+            int[][] steps = {{0, -1}, {1, 0}, {0, 1}, {-1, 0}};
+            for (int[] step : steps) {
+                int nx = x + step[0];
+                int ny = y + step[1];
+                if (nx < 0 || nx >= board.getWidth() || ny < 0 || ny >= board.getHeight())
+                    continue;
+                int neighbour = board.getIndex(nx, ny);
+                if (neighbour != removed && !reached[neighbour] && board.isActiveOwned(playerId, neighbour)) {
+                    reached[neighbour] = true;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return reached;
+    }
+
+    static private int[] bruteCutOff(Board board, int playerId, int hq, boolean[] territory, int idx) {
+        if (!territory[idx])
+            return new int[0];
+        boolean[] reached = flood(board, playerId, hq, idx);
+        int[] cells = new int[board.getSize()];
+        int count = 0;
+        for (int cell = 0; cell < board.getSize(); ++cell) {
+            if (cell != idx && territory[cell] && !reached[cell])
+                cells[count++] = cell;
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    // random owners and activity on the map's cells, HQs kept
+    static private void scatter(GameState gameState, Random random, double ownedRate) {
+        for (int idx = 0; idx < gameState.getWidth() * gameState.getHeight(); ++idx) {
+            Cell cell = gameState.getCell(idx);
+            if (cell.getOwner() == VOID || cell.getBuilding() != null)
+                continue;
+            if (random.nextDouble() < ownedRate)
+                cell.setOwner(random.nextInt(PLAYER_COUNT));
+            else
+                cell.setOwner(NEUTRAL);
+            if (random.nextDouble() < 0.1)
+                cell.setInactive();
+            else
+                cell.setActive();
+        }
+    }
+
+    static private void checkTree(String message, GameState gameState, int playerId) {
+        Board board = gameState.getBoard();
+        int hq = gameState.getHQs().get(playerId).getCell().getIndex();
+        TerritoryTree tree = gameState.getTerritoryTree(playerId);
+        boolean[] territory = flood(board, playerId, hq, -1);
+
+        int size = board.getSize();
+        int[][] expected = new int[size][];
+        int[] out = new int[size];
+        for (int idx = 0; idx < size; ++idx) {
+            String where = message + " cell " + board.getX(idx) + " " + board.getY(idx);
+            assertEquals(where + " in tree", territory[idx], tree.contains(idx));
+
+            expected[idx] = bruteCutOff(board, playerId, hq, territory, idx);
+            assertEquals(where + " count", expected[idx].length, tree.getCutOffCount(idx));
+            int[] actual = Arrays.copyOf(out, tree.getCutOffCells(idx, out));
+            Arrays.sort(actual);
+            assertArrayEquals(where + " cells", expected[idx], actual);
+        }
+
+        // the dominator is the closest cell cutting a cell off: the smallest cut off set holding it
+        for (int idx = 0; idx < size; ++idx) {
+            if (!territory[idx] || idx == hq) {
+                assertEquals(message + " no dominator " + idx, -1, tree.getDominator(idx));
+                continue;
+            }
+            int closest = hq;
+            for (int cell = 0; cell < size; ++cell) {
+                if (Arrays.binarySearch(expected[cell], idx) >= 0 && expected[cell].length < expected[closest].length)
+                    closest = cell;
+            }
+            assertEquals(message + " dominator of " + idx, closest, tree.getDominator(idx));
+        }
+    }
+
+    @Test
+    public void cutOffCellsMatchAFloodFromTheHQ() throws Exception {
+        for (int[] size : SIZES) {
+            for (long seed : SEEDS) {
+                for (double ownedRate : OWNED_RATES) {
+                    GameState gameState = new GameState(seed, LEAGUE.BRONZE, size[0], size[1]);
+                    gameState.generateMap(LEAGUE.BRONZE);
+                    gameState.createHQs(PLAYER_COUNT);
+                    Random random = new Random(seed);
+
+                    // the trees are kept between rounds: each change must rebuild them
+                    for (int round = 0; round < ROUNDS; ++round) {
+                        scatter(gameState, random, ownedRate);
+                        for (int playerId = 0; playerId < PLAYER_COUNT; ++playerId) {
+                            String message = size[0] + "x" + size[1] + " seed " + seed + " rate " + ownedRate + " round " + round + " player " + playerId;
+                            checkTree(message, gameState, playerId);
+                            assertTrue(message, gameState.getTerritoryTree(playerId).getCellCount() > 0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
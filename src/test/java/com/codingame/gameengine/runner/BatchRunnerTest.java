@@ -0,0 +1,206 @@
+package com.codingame.gameengine.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.codingame.gameengine.runner.dto.GameResult;
+
+public class BatchRunnerTest {
+
+	private static final int GAMES = 8;
+	private static final int THREADS = 4;
+
+	private static final Pattern SUMMARY_TOKEN = Pattern.compile("^\\$(\\d): .*MOVE 1 (\\d+) 0$");
+	private static final Pattern TRACE_TOKEN = Pattern.compile("token (\\d+)");
+
+	/**
+	 * Plays an invalid move carrying a random token, so the referee echoes it in the game summary, and traces the same
+	 * token through a class the runner does not redirect: that line goes to the global System.err.
+	 */
+	public static class TokenBot {
+		public static void main(String[] args) {
+			int token = ThreadLocalRandom.current().nextInt(1000, Integer.MAX_VALUE);
+			Scanner in = new Scanner(System.in);
+			int mineSpots = in.nextInt();
+			for (int i = 0; i < 2 * mineSpots; ++i)
+				in.nextInt();
+
+			while (true) {
+				for (int i = 0; i < 4; ++i)
+					in.nextInt();
+				for (int y = 0; y < 12; ++y)
+					in.next();
+				int buildings = in.nextInt();
+				for (int i = 0; i < 4 * buildings; ++i)
+					in.nextInt();
+				int units = in.nextInt();
+				for (int i = 0; i < 5 * units; ++i)
+					in.nextInt();
+
+				Trace.token(token);
+				System.out.println("MOVE 1 " + token + " 0");
+				System.out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Reads its input line by line and checks each line's shape: WAIT if the turn input is as documented, a command the
+	 * referee rejects otherwise.
+	 */
+	public static class LineBot {
+		private static boolean matches(Scanner in, String pattern) {
+			return in.nextLine().matches(pattern);
+		}
+
+		public static void main(String[] args) {
+			Scanner in = new Scanner(System.in);
+			boolean ok = true;
+			int mineSpots = Integer.parseInt(in.nextLine());
+			for (int i = 0; i < mineSpots; ++i)
+				ok &= matches(in, "\\d+ \\d+");
+
+			while (true) {
+				for (int i = 0; i < 4; ++i)
+					ok &= matches(in, "-?\\d+");
+				for (int y = 0; y < 12; ++y)
+					ok &= matches(in, "\\S{12}");
+				int buildings = Integer.parseInt(in.nextLine());
+				for (int i = 0; i < buildings; ++i)
+					ok &= matches(in, "\\d+ \\d+ \\d+ \\d+");
+				int units = Integer.parseInt(in.nextLine());
+				for (int i = 0; i < units; ++i)
+					ok &= matches(in, "\\d+ \\d+ \\d+ \\d+ \\d+");
+
+				System.out.println(ok ? "WAIT" : "BAD INPUT");
+				System.out.flush();
+			}
+		}
+	}
+
+	public static class Trace {
+		public static void token(int token) {
+			System.err.println("token " + token);
+		}
+	}
+
+	/**
+	 * BatchRunner drives GameRunner through its private members: a runner version that renames or retypes one of them must
+	 * fail here, naming the member, rather than in the middle of a batch.
+	 */
+	@Test
+	public void gameRunnerMembersAreFound() throws Exception {
+		try {
+			Class.forName(BatchRunner.class.getName(), true, BatchRunner.class.getClassLoader());
+		} catch (ExceptionInInitializerError e) {
+			throw new AssertionError(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * A map size that is invalid or does not fit the runner fails the game instead of playing 12x12 maps.
+	 */
+	@Test
+	public void unplayableMapSizesFail() throws Exception {
+		String bot = "java:" + TokenBot.class.getName();
+		String[][] sizes = { { "200", "200" }, { "148", "148" }, { "11", "12" }, { "twelve", "12" } };
+		for (String[] size : sizes) {
+			Properties parameters = new Properties();
+			parameters.setProperty("width", size[0]);
+			parameters.setProperty("height", size[1]);
+			GameResult result = new BatchRunner(bot, bot, 1, parameters).play(1);
+			assertTrue(size[0] + "x" + size[1], result.failCause != null);
+		}
+	}
+
+	@Test
+	public void turnInputArrivesLineByLine() throws Exception {
+		String bot = "java:" + LineBot.class.getName();
+		GameResult result = new BatchRunner(bot, bot, 4, new Properties()).play(1);
+		assertNull(result.failCause);
+		for (String summary : result.summaries)
+			assertFalse(summary, summary != null && summary.contains("BAD INPUT"));
+		assertTrue(result.metadata, result.metadata.contains("max_turns"));
+	}
+
+	@Test
+	public void concurrentGamesKeepTheirOwnOutput() throws Exception {
+		String bot = "java:" + TokenBot.class.getName();
+		BatchRunner batch = new BatchRunner(bot, bot, 1, new Properties());
+		PrintStream out = System.out;
+		PrintStream err = System.err;
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<GameResult>> games = new ArrayList<>();
+		for (int i = 0; i < GAMES; ++i) {
+			long seed = i + 1;
+			games.add(pool.submit(() -> batch.play(seed)));
+		}
+		pool.shutdown();
+
+		Set<String> allTokens = new HashSet<>();
+		for (Future<GameResult> game : games) {
+			GameResult result = game.get();
+			assertNull(result.failCause);
+
+			// each player's summary lines carry that player's token only
+			String[] playerTokens = new String[2];
+			for (String summary : result.summaries) {
+				for (String line : summary.split("\n")) {
+					Matcher matcher = SUMMARY_TOKEN.matcher(line);
+					if (!matcher.matches())
+						continue;
+					int player = Integer.parseInt(matcher.group(1));
+					if (playerTokens[player] == null)
+						playerTokens[player] = matcher.group(2);
+					assertEquals(line, playerTokens[player], matcher.group(2));
+				}
+			}
+			Set<String> gameTokens = new HashSet<>();
+			for (String token : playerTokens) {
+				assertTrue(token != null);
+				gameTokens.add(token);
+			}
+			assertEquals(2, gameTokens.size());
+
+			// global stderr traced while the game ran belongs to this game's bots
+			Set<String> traced = new HashSet<>();
+			for (String error : result.errors.get("referee")) {
+				if (error == null)
+					continue;
+				Matcher matcher = TRACE_TOKEN.matcher(error);
+				while (matcher.find())
+					traced.add(matcher.group(1));
+			}
+			assertEquals(gameTokens, traced);
+
+			for (String token : gameTokens)
+				assertFalse(token, allTokens.contains(token));
+			allTokens.addAll(gameTokens);
+		}
+
+		// the streams the games replaced are back
+		assertSame(out, System.out);
+		assertSame(err, System.err);
+	}
+
+}